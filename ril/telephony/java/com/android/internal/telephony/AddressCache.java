@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Splits the space separated address, DNS and PCSCF lists of data call responses, and
+ * keeps the last few results so repeated modem strings share one array.
+ *
+ * The returned arrays are shared and must not be modified.
+ * {@hide}
+ */
+public final class AddressCache {
+    private static final int MAX_ENTRIES = 8;
+
+    private final LinkedHashMap<String, String[]> mCache =
+            new LinkedHashMap<String, String[]>(MAX_ENTRIES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String[]> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            };
+    private long mHits;
+    private long mMisses;
+
+    /**
+     * Returns {@code raw.split(" ")}, shared with earlier calls for the same string.
+     */
+    public synchronized String[] split(String raw) {
+        String[] tokens = mCache.get(raw);
+        if (tokens != null) {
+            mHits++;
+            return tokens;
+        }
+        mMisses++;
+        tokens = splitOnSpace(raw);
+        mCache.put(raw, tokens);
+        return tokens;
+    }
+
+    /**
+     * Same result as {@code s.split(" ")}, without the regex fast-path checks and the
+     * intermediate list.
+     */
+    static String[] splitOnSpace(String s) {
+        final int len = s.length();
+        // Like split(), trailing empty tokens are dropped
+        int end = len;
+        while (end > 0 && s.charAt(end - 1) == ' ') {
+            end--;
+        }
+        if (end == 0) {
+            return len == 0 ? new String[] { s } : new String[0];
+        }
+        int count = 1;
+        for (int i = 0; i < end; i++) {
+            if (s.charAt(i) == ' ') {
+                count++;
+            }
+        }
+        if (count == 1) {
+            return new String[] { end == len ? s : s.substring(0, end) };
+        }
+        String[] tokens = new String[count];
+        int start = 0;
+        int n = 0;
+        for (int i = 0; i < end; i++) {
+            if (s.charAt(i) == ' ') {
+                tokens[n++] = s.substring(start, i);
+                start = i + 1;
+            }
+        }
+        tokens[n] = s.substring(start, end);
+        return tokens;
+    }
+
+    public synchronized long getHits() {
+        return mHits;
+    }
+
+    public synchronized long getMisses() {
+        return mMisses;
+    }
+}
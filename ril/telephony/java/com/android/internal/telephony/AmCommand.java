@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import java.util.ArrayList;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.UserHandle;
+
+/**
+ * The subset of the "am" command line the Samsung modem sends with RIL_UNSOL_AM.
+ *
+ * Supports "broadcast" and "start" with -a, -d, -t, -c, -n, -f, --es, --esn, --ei,
+ * --el, --ez and --user. {@link #parse} returns null for anything else, which is left
+ * to the real am.
+ * {@hide}
+ */
+public final class AmCommand {
+    private final boolean mBroadcast;
+    private final Intent mIntent;
+    private final UserHandle mUser;
+
+    private AmCommand(boolean broadcast, Intent intent, UserHandle user) {
+        mBroadcast = broadcast;
+        mIntent = intent;
+        mUser = user;
+    }
+
+    /**
+     * Parses the arguments of an am command, or returns null if they use anything
+     * that isn't supported here.
+     */
+    public static AmCommand parse(String args) {
+        ArrayList<String> tokens = tokenize(args);
+        if (tokens == null || tokens.isEmpty()) {
+            return null;
+        }
+
+        final boolean broadcast;
+        if ("broadcast".equals(tokens.get(0))) {
+            broadcast = true;
+        } else if ("start".equals(tokens.get(0))) {
+            broadcast = false;
+        } else {
+            return null;
+        }
+
+        Intent intent = new Intent();
+        UserHandle user = broadcast ? UserHandle.ALL : UserHandle.CURRENT;
+        Uri data = null;
+        String type = null;
+        try {
+            for (int i = 1; i < tokens.size(); i++) {
+                String opt = tokens.get(i);
+                switch (opt) {
+                    case "-a":
+                        intent.setAction(tokens.get(++i));
+                        break;
+                    case "-d":
+                        data = Uri.parse(tokens.get(++i));
+                        break;
+                    case "-t":
+                        type = tokens.get(++i);
+                        break;
+                    case "-c":
+                        intent.addCategory(tokens.get(++i));
+                        break;
+                    case "-n":
+                        ComponentName cn = ComponentName.unflattenFromString(tokens.get(++i));
+                        if (cn == null) {
+                            return null;
+                        }
+                        intent.setComponent(cn);
+                        break;
+                    case "-f":
+                        intent.setFlags(Integer.decode(tokens.get(++i)).intValue());
+                        break;
+                    case "--es":
+                        intent.putExtra(tokens.get(++i), tokens.get(++i));
+                        break;
+                    case "--esn":
+                        intent.putExtra(tokens.get(++i), (String) null);
+                        break;
+                    case "--ei":
+                        intent.putExtra(tokens.get(++i),
+                                Integer.decode(tokens.get(++i)).intValue());
+                        break;
+                    case "--el":
+                        intent.putExtra(tokens.get(++i),
+                                Long.decode(tokens.get(++i)).longValue());
+                        break;
+                    case "--ez":
+                        String key = tokens.get(++i);
+                        String value = tokens.get(++i);
+                        if ("true".equalsIgnoreCase(value) || "t".equalsIgnoreCase(value)) {
+                            intent.putExtra(key, true);
+                        } else if ("false".equalsIgnoreCase(value)
+                                || "f".equalsIgnoreCase(value)) {
+                            intent.putExtra(key, false);
+                        } else {
+                            return null;
+                        }
+                        break;
+                    case "--user":
+                        String u = tokens.get(++i);
+                        if ("all".equals(u)) {
+                            user = UserHandle.ALL;
+                        } else if ("current".equals(u)) {
+                            user = UserHandle.CURRENT;
+                        } else {
+                            user = UserHandle.of(Integer.parseInt(u));
+                        }
+                        break;
+                    default:
+                        return null;
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            // Option without its value
+            return null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        intent.setDataAndType(data, type);
+
+        if (!broadcast) {
+            intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        }
+        return new AmCommand(broadcast, intent, user);
+    }
+
+    // Splits on whitespace, single or double quotes group words. Null on an open quote.
+    private static ArrayList<String> tokenize(String args) {
+        if (args == null) {
+            return null;
+        }
+        ArrayList<String> tokens = new ArrayList<String>();
+        StringBuilder token = new StringBuilder();
+        boolean inToken = false;
+        char quote = 0;
+        for (int i = 0, len = args.length(); i < len; i++) {
+            char c = args.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                } else {
+                    token.append(c);
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+                inToken = true;
+            } else if (Character.isWhitespace(c)) {
+                if (inToken) {
+                    tokens.add(token.toString());
+                    token.setLength(0);
+                    inToken = false;
+                }
+            } else {
+                token.append(c);
+                inToken = true;
+            }
+        }
+        if (quote != 0) {
+            return null;
+        }
+        if (inToken) {
+            tokens.add(token.toString());
+        }
+        return tokens;
+    }
+
+    /**
+     * Sends the broadcast or starts the activity from {@code context}.
+     */
+    public void execute(Context context) {
+        if (mBroadcast) {
+            context.sendBroadcastAsUser(mIntent, mUser);
+        } else {
+            context.startActivityAsUser(mIntent, mUser);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return (mBroadcast ? "broadcast " : "start ") + mIntent + " user=" + mUser;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size log-linear histogram of latencies in microseconds.
+ *
+ * Values below 16us get a bucket each, above that every power of two is split into
+ * 8 buckets, so a percentile is off by at most 12.5%. Recording only touches
+ * preallocated counters and is safe from any thread.
+ * {@hide}
+ */
+public final class LatencyHistogram {
+    private static final int LINEAR_BUCKETS = 16;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // 2^36us is about 19 hours, anything longer lands in the last bucket.
+    private static final int MAX_EXPONENT = 36;
+    private static final int BUCKETS =
+            LINEAR_BUCKETS + (MAX_EXPONENT - 4 + 1) * SUB_BUCKETS;
+
+    private static final int COUNT = BUCKETS;
+    private static final int SUM = BUCKETS + 1;
+    private static final int MAX = BUCKETS + 2;
+
+    // Buckets, followed by count, sum and max.
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS + 3);
+
+    /**
+     * Records a latency given in nanoseconds.
+     */
+    public void recordNanos(long nanos) {
+        record(nanos / 1000);
+    }
+
+    /**
+     * Records a latency given in microseconds.
+     */
+    public void record(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+        mCounts.incrementAndGet(bucketOf(micros));
+        mCounts.incrementAndGet(COUNT);
+        mCounts.addAndGet(SUM, micros);
+        long max;
+        while (micros > (max = mCounts.get(MAX))) {
+            if (mCounts.compareAndSet(MAX, max, micros)) {
+                break;
+            }
+        }
+    }
+
+    private static int bucketOf(long micros) {
+        if (micros < LINEAR_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        int sub = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_BUCKETS + (exponent - 4) * SUB_BUCKETS + sub;
+    }
+
+    // Largest value that lands in bucket.
+    private static long upperBoundOf(int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+        int exponent = (bucket - LINEAR_BUCKETS) / SUB_BUCKETS + 4;
+        int sub = (bucket - LINEAR_BUCKETS) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    public long getCount() {
+        return mCounts.get(COUNT);
+    }
+
+    /**
+     * Returns the latency in microseconds below which {@code percent} of the recorded
+     * values are, or 0 if nothing was recorded.
+     */
+    public long getPercentile(double percent) {
+        long count = mCounts.get(COUNT);
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * percent / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += mCounts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), mCounts.get(MAX));
+            }
+        }
+        return mCounts.get(MAX);
+    }
+
+    public void reset() {
+        for (int i = 0; i < mCounts.length(); i++) {
+            mCounts.set(i, 0);
+        }
+    }
+
+    /**
+     * Prints count, mean, p50, p90, p99 and max in microseconds on one line.
+     */
+    public void dump(PrintWriter pw, String name) {
+        long count = mCounts.get(COUNT);
+        pw.println(name + ": count=" + count
+                + " mean=" + (count > 0 ? mCounts.get(SUM) / count : 0)
+                + " p50=" + getPercentile(50)
+                + " p90=" + getPercentile(90)
+                + " p99=" + getPercentile(99)
+                + " max=" + mCounts.get(MAX) + " (us)");
+    }
+}
@@ -16,124 +16,187 @@
 
 package com.android.internal.telephony;
 
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.IOException;
-import java.util.Collections;
+import java.io.PrintWriter;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.xmlpull.v1.XmlPullParser;
-import org.xmlpull.v1.XmlPullParserException;
-
-import android.os.Environment;
-import android.telephony.Rlog;
-import android.util.Xml;
-
-import com.android.internal.util.XmlUtils;
+import android.os.SystemClock;
 
 public class Operators {
-    // Initialize list of Operator codes
-    // This will be taken care of when garbage collection starts.
-    private HashMap<String, String>  initList() {
-        HashMap<String, String> init = new HashMap<String, String>();
-        // Taken from spnOveride.java
-        FileReader spnReader;
-        final File spnFile = new File(Environment.getRootDirectory(), "etc/selective-spn-conf.xml");
-
-        try {
-            spnReader = new FileReader(spnFile);
-        } catch (FileNotFoundException e) {
-            Rlog.w("Operatorcheck", "Can not open " +
-                   Environment.getRootDirectory() + "/etc/selective-spn-conf.xml");
-            return init;
+    // Number of numeric -> name pairs remembered per SIM slot.
+    private static final int SLOT_CACHE_SIZE = 4;
+
+    // Last known good values, one small LRU per SIM slot so the two DSDA RIL instances
+    // neither race on nor evict each other's entries.
+    private static final ConcurrentHashMap<Integer, SlotCache> sSlotCaches =
+            new ConcurrentHashMap<Integer, SlotCache>();
+
+    private static final class SlotCache {
+        // Index the entries were resolved against, entries are dropped when it is swapped.
+        private SpnIndex mIndex;
+        private final LinkedHashMap<String, String> mEntries =
+                new LinkedHashMap<String, String>(SLOT_CACHE_SIZE * 2, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                        return size() > SLOT_CACHE_SIZE;
+                    }
+                };
+        final AtomicLong mHits = new AtomicLong();
+        final AtomicLong mMisses = new AtomicLong();
+
+        synchronized String get(SpnIndex index, String numeric) {
+            if (mIndex != index) {
+                mEntries.clear();
+                mIndex = index;
+            }
+            return mEntries.get(numeric);
         }
 
-        try {
-            XmlPullParser parser = Xml.newPullParser();
-            parser.setInput(spnReader);
-
-            XmlUtils.beginDocument(parser, "spnOverrides");
-
-            while (true) {
-                XmlUtils.nextElement(parser);
-
-                String name = parser.getName();
-                if (!"spnOverride".equals(name)) {
-                    break;
-                }
-
-                String numeric = parser.getAttributeValue(null, "numeric");
-                String data    = parser.getAttributeValue(null, "spn");
+        synchronized void put(String numeric, String name) {
+            mEntries.put(numeric, name);
+        }
+    }
 
-                init.put(numeric, data);
+    // Lookup metrics, see dump()
+    private static final AtomicLong sLookups = new AtomicLong();
+    private static final AtomicLong sLookupsWhileLoading = new AtomicLong();
+    private static final LatencyHistogram sLookupLatency = new LatencyHistogram();
+
+    private static SlotCache getSlotCache(int slot) {
+        SlotCache cache = sSlotCaches.get(slot);
+        if (cache == null) {
+            SlotCache created = new SlotCache();
+            cache = sSlotCaches.putIfAbsent(slot, created);
+            if (cache == null) {
+                cache = created;
             }
-        } catch (XmlPullParserException e) {
-            Rlog.w("Operatorcheck", "Exception in spn-conf parser " + e);
-        } catch (IOException e) {
-            Rlog.w("Operatorcheck", "Exception in spn-conf parser " + e);
         }
-        return init;
+        return cache;
     }
 
-    // This will stay persistant in memory when called
-    private static String stored = null;
-    private static String storedOperators = null;
+    public static String operatorReplace(int slot, String response) {
+        final long start = SystemClock.elapsedRealtimeNanos();
+        String name = resolve(slot, response);
+        sLookups.incrementAndGet();
+        sLookupLatency.recordNanos(SystemClock.elapsedRealtimeNanos() - start);
+        return name;
+    }
 
-    public static String operatorReplace(String response) {
+    private static String resolve(int slot, String response) {
         // Sanity checking if the value is actually not equal to the range apn Numerics
         // If it is null, check your ril class.
-        if(response == null || (5 != response.length() && response.length() != 6)) {
+        if (!Plmn.hasNumericLength(response) || !Plmn.isNumeric(response)) {
+            // Not a number, nothing to replace.
             return response;
         }
-        // This will check if the stored value is equal to other.
-        // This uses a technique called last known of good value along with sanity checking.
-        if(storedOperators != null && stored != null && stored.equals(response)) {
-            return storedOperators;
+        SpnIndex index = SpnIndex.getInstance();
+        if (index == null) {
+            // Still loading, don't hold up the caller. Not cached, the next response
+            // gets the real name.
+            sLookupsWhileLoading.incrementAndGet();
+            return response;
         }
-        stored = response;
-        try {
-            // This will find out if it a number then it will catch it based on invalid chars.
-            Integer.parseInt(response);
-        }  catch(NumberFormatException E) {
-            // Not a number, pass it along to stored operator until the next round.
-            storedOperators = response;
-            return storedOperators;
+        SlotCache cache = getSlotCache(slot);
+        String name = cache.get(index, response);
+        if (name != null) {
+            cache.mHits.incrementAndGet();
+            return name;
         }
-        // This code will be taking care of when garbage collection start
-        Operators init = new Operators();
-        Map<String, String> operators = init.initList();
-        storedOperators = operators.containsKey(response) ? operators.get(response) : response;
-        return storedOperators;
+        cache.mMisses.incrementAndGet();
+        // The compiled index is mapped once, a miss no longer reparses the XML.
+        String spn = index.lookup(response);
+        name = spn != null ? spn : response;
+        cache.put(response, name);
+        return name;
     }
 
-    // This will not stay persistant in memory, this will be taken care of in garbage collection
-    // routine.
-    private Map<String, String> unOptOperators = null;
-    // Unoptimized version of operatorReplace for responseOperatorInfos this will provide a little
-    // more flexiblilty in a loop like situation.
-    // Same numbers of checks as before. This is for the search network functionality
-    public String unOptimizedOperatorReplace(String response) {
-        // Sanity checking if the value is actually not equal to the range apn numerics.
-        // if it is null, check your ril class.
-        if(response == null ||
-           (5 != response.length() && response.length() != 6)) {
-            return response;
+    public static void dump(PrintWriter pw) {
+        pw.println(" Operators:");
+        pw.println("  lookups=" + sLookups.get()
+                + " whileLoading=" + sLookupsWhileLoading.get());
+        for (Map.Entry<Integer, SlotCache> entry : sSlotCaches.entrySet()) {
+            long hits = entry.getValue().mHits.get();
+            long misses = entry.getValue().mMisses.get();
+            pw.println("  slot " + entry.getKey() + ": hits=" + hits + " misses=" + misses
+                    + " hitRatio=" + (hits + misses > 0 ? hits * 100 / (hits + misses) : 0)
+                    + "%");
         }
+        sLookupLatency.dump(pw, "  lookup latency");
+        SpnIndex.dump(pw);
+    }
 
-        try {
-            // This will find out if it a number then it will catch it based on invalid chars.
-            Integer.parseInt(response);
-        }  catch(NumberFormatException E) {
-            // An illegal char is found i.e a word
-            return response;
+    /**
+     * Resolves the operators of a network scan result in one pass.
+     *
+     * {@code strings} holds {@code stride} strings per operator, the first one being the
+     * long alpha name the modem sent, which is a numeric on this RIL. Returns two names per
+     * operator, long at 2 * n and short at 2 * n + 1. The short name falls back to the long
+     * one unless the spn-conf has a spn_short for it. Operators that show up more than once
+     * in a scan are looked up once.
+     */
+    public static String[] resolveOperatorNames(String[] strings, int stride) {
+        final int count = strings.length / stride;
+        String[] names = new String[count * 2];
+        // Wait for the index at most once per scan, not once per operator
+        SpnIndex index = SpnIndex.peek();
+        if (index == null) {
+            for (int i = 0; i < count; i++) {
+                names[2 * i] = strings[i * stride];
+                names[2 * i + 1] = strings[i * stride];
+            }
+            return names;
         }
+        final PlmnTable table = index.getTable();
+        int[] keys = new int[count];
+
+        for (int i = 0; i < count; i++) {
+            final String alpha = strings[i * stride];
+            final int key = Plmn.pack(alpha);
+            keys[i] = key;
+            if (key == Plmn.INVALID) {
+                // Already a name, or garbage. Pass it along.
+                names[2 * i] = alpha;
+                names[2 * i + 1] = alpha;
+                continue;
+            }
 
-        if (unOptOperators == null) {
-            unOptOperators = initList();
+            int seen = 0;
+            while (keys[seen] != key) {
+                seen++;
+            }
+            if (seen < i) {
+                names[2 * i] = names[2 * seen];
+                names[2 * i + 1] = names[2 * seen + 1];
+                continue;
+            }
+
+            int slot = table.findWithMccFallback(key);
+            if (slot < 0) {
+                names[2 * i] = alpha;
+                names[2 * i + 1] = alpha;
+            } else {
+                String name = table.nameAt(slot);
+                String shortName = table.shortNameAt(slot);
+                names[2 * i] = name;
+                names[2 * i + 1] = shortName != null ? shortName : name;
+            }
         }
+        return names;
+    }
+
+    /**
+     * Starts loading the operator table in the background.
+     */
+    public static void preload() {
+        SpnIndex.preload();
+    }
 
-        return unOptOperators.containsKey(response) ? unOptOperators.get(response) : response;
+    /**
+     * Returns how long loading the operator table took, or -1 if it isn't loaded yet.
+     */
+    public static long getPreloadDurationMs() {
+        return SpnIndex.getPreloadDurationMs();
     }
 }
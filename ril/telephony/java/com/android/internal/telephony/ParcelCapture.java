@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import android.os.Environment;
+import android.os.Parcel;
+import android.os.SystemClock;
+import android.os.SystemProperties;
+import android.telephony.Rlog;
+
+/**
+ * Records the raw parcels received from rild to /data/misc/radio, so field RIL traffic
+ * can be inspected offline. This is the capture side only; replaying a capture is
+ * separate work and not part of this tree.
+ *
+ * Enabled with persist.radio.ril_capture=true, read once when the class loads. The
+ * file starts with the magic and version ints, followed by one record per parcel:
+ * elapsedRealtimeNanos (long), response type (int, as passed to processSolicited or
+ * processUnsolicited, so RESPONSE_SOLICITED, RESPONSE_UNSOLICITED or one of their
+ * _ACK_EXP variants), length (int) and the marshalled parcel, which still starts with
+ * the response type. All values are big endian. Every record is flushed as it is
+ * written, so a crash loses nothing already recorded. Capture stops at
+ * {@link #MAX_BYTES}.
+ * {@hide}
+ */
+public final class ParcelCapture {
+    private static final String LOG_TAG = "ParcelCapture";
+
+    public static final boolean ENABLED =
+            SystemProperties.getBoolean("persist.radio.ril_capture", false);
+
+    public static final int MAGIC = 0x52494c43; // "RILC"
+    public static final int VERSION = 1;
+    private static final int MAX_BYTES = 16 * 1024 * 1024;
+
+    private final File mFile;
+    private DataOutputStream mOut;
+    private int mWritten;
+    private int mRecords;
+
+    public ParcelCapture(int slotId) {
+        mFile = new File(Environment.getDataDirectory(),
+                "misc/radio/ril-capture-" + slotId + ".bin");
+    }
+
+    /**
+     * Appends {@code p}, a parcel of {@code type}. Callers check {@link #ENABLED} first.
+     */
+    public synchronized void record(Parcel p, int type) {
+        if (mWritten >= MAX_BYTES) {
+            return;
+        }
+        try {
+            if (mOut == null) {
+                mOut = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(mFile)));
+                mOut.writeInt(MAGIC);
+                mOut.writeInt(VERSION);
+                mWritten = 8;
+            }
+            byte[] data = p.marshall();
+            mOut.writeLong(SystemClock.elapsedRealtimeNanos());
+            mOut.writeInt(type);
+            mOut.writeInt(data.length);
+            mOut.write(data);
+            mOut.flush();
+            mWritten += 16 + data.length;
+            mRecords++;
+            if (mWritten >= MAX_BYTES) {
+                Rlog.d(LOG_TAG, "Capture full, " + mRecords + " parcels in " + mFile);
+                mOut.close();
+            }
+        } catch (IOException e) {
+            Rlog.w(LOG_TAG, "Can not write " + mFile + ": " + e);
+            mWritten = MAX_BYTES;
+            if (mOut != null) {
+                try {
+                    mOut.close();
+                } catch (IOException ignored) {
+                    // Nothing to do
+                }
+                mOut = null;
+            }
+        }
+    }
+
+    /**
+     * Prints how much was captured and where it is.
+     */
+    public synchronized void dump(PrintWriter pw) {
+        if (!ENABLED) {
+            pw.println(" capture: disabled");
+            return;
+        }
+        pw.println(" capture: " + mRecords + " parcels, " + mWritten + " bytes in " + mFile
+                + (mWritten >= MAX_BYTES ? " (stopped)" : ""));
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free map from the serial of an in-flight request to its request code.
+ *
+ * Slots are indexed by the low bits of the serial and hold serial and code packed
+ * into one long, so {@link #claim} can check and remove an entry with a single CAS.
+ * A request still pending when its slot is reused moves to a small overflow map, which
+ * drops its oldest entries when it is full.
+ * {@hide}
+ */
+public final class PendingRequestTable {
+    private static final int SLOTS = 256;
+    private static final int MASK = SLOTS - 1;
+    // Entries pushed out of the overflow this far back were almost certainly cleared by
+    // RIL and never answered
+    private static final int MAX_OVERFLOW = 64;
+    private static final long EMPTY = -1L;
+
+    private final AtomicLongArray mSlots = new AtomicLongArray(SLOTS);
+    // By serial, serials only grow so the first entry is the oldest
+    private final ConcurrentSkipListMap<Integer, Integer> mOverflow =
+            new ConcurrentSkipListMap<Integer, Integer>();
+
+    public PendingRequestTable() {
+        for (int i = 0; i < SLOTS; i++) {
+            mSlots.set(i, EMPTY);
+        }
+    }
+
+    private static long pack(int serial, int request) {
+        return ((long) serial << 32) | (request & 0x7fffffffL);
+    }
+
+    /**
+     * Remembers that {@code serial} carries {@code request}.
+     */
+    public void put(int serial, int request) {
+        long old = mSlots.getAndSet(serial & MASK, pack(serial, request));
+        if (old != EMPTY) {
+            while (mOverflow.size() >= MAX_OVERFLOW) {
+                mOverflow.pollFirstEntry();
+            }
+            mOverflow.put((int) (old >> 32), (int) old);
+        }
+    }
+
+    /**
+     * Removes {@code serial} and returns its request code, or -1 if it isn't pending.
+     */
+    public int claim(int serial) {
+        final int slot = serial & MASK;
+        long entry = mSlots.get(slot);
+        if (entry != EMPTY && (int) (entry >> 32) == serial
+                && mSlots.compareAndSet(slot, entry, EMPTY)) {
+            return (int) entry;
+        }
+        if (!mOverflow.isEmpty()) {
+            Integer request = mOverflow.remove(serial);
+            if (request != null) {
+                return request;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+/**
+ * Helpers to turn an operator numeric (MCC + MNC) into a packed int key.
+ *
+ * Key layout: bits 11-20 MCC, bits 1-10 MNC, bit 0 set for a 3 digit MNC,
+ * so "46001" and "460001" get different keys. A key for a whole country has
+ * all MNC bits set, which no real MNC uses.
+ * {@hide}
+ */
+public final class Plmn {
+    public static final int INVALID = -1;
+
+    // MNC and MNC length bits of a country key
+    private static final int MCC_ONLY = 0x7ff;
+
+    private Plmn() {
+    }
+
+    /**
+     * Returns true if every char of {@code s} is an ASCII digit. Uses no per-char branch,
+     * any char outside '0'..'9' makes one of the differences negative.
+     */
+    public static boolean isNumeric(String s) {
+        int acc = 0;
+        for (int i = 0, len = s.length(); i < len; i++) {
+            char c = s.charAt(i);
+            acc |= (c - '0') | ('9' - c);
+        }
+        return acc >= 0;
+    }
+
+    /**
+     * Returns true if {@code s} has the length of an operator numeric (5 or 6 chars).
+     */
+    public static boolean hasNumericLength(String s) {
+        return s != null && (s.length() == 5 || s.length() == 6);
+    }
+
+    /**
+     * Packs a 5 or 6 digit operator numeric, or returns {@link #INVALID}.
+     */
+    public static int pack(String numeric) {
+        if (!hasNumericLength(numeric) || !isNumeric(numeric)) {
+            return INVALID;
+        }
+        final int len = numeric.length();
+        int mcc = digits(numeric, 0, 3);
+        int mnc = digits(numeric, 3, len);
+        return (mcc << 11) | (mnc << 1) | (len - 5);
+    }
+
+    /**
+     * Like {@link #pack}, but also accepts a 3 digit MCC and returns its country key.
+     */
+    public static int packWithMcc(String numeric) {
+        if (numeric != null && numeric.length() == 3 && isNumeric(numeric)) {
+            return (digits(numeric, 0, 3) << 11) | MCC_ONLY;
+        }
+        return pack(numeric);
+    }
+
+    /**
+     * Returns the country key of the MCC in a packed {@code key}.
+     */
+    public static int mccKey(int key) {
+        return (key & ~0x7ff) | MCC_ONLY;
+    }
+
+    private static int digits(String s, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            value = value * 10 + (s.charAt(i) - '0');
+        }
+        return value;
+    }
+}
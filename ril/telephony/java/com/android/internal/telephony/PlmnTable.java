@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Open-addressing map from a packed PLMN key (see {@link Plmn#pack}) to a long name and
+ * an optional short name.
+ *
+ * The table lives in a single ByteBuffer so the same layout can be used from the heap
+ * or from a mapped file:
+ *   int capacity, int count, int keys[capacity], int names[capacity],
+ *   int shortNames[capacity], name pool.
+ * Empty slots hold {@link Plmn#INVALID}, names are offsets into the pool and a missing
+ * short name is -1. Pool entries are an unsigned short byte length followed by UTF-8
+ * bytes, identical names are stored once.
+ * {@hide}
+ */
+public final class PlmnTable {
+    private static final int HEADER_SIZE = 8;
+
+    private final ByteBuffer mBuffer;
+    private final int mMask;
+    private final int mCount;
+    private final int mKeysOffset;
+    private final int mNamesOffset;
+    private final int mShortNamesOffset;
+    private final int mPoolOffset;
+
+    /**
+     * Wraps a table that starts at {@code base} in {@code buffer}.
+     */
+    PlmnTable(ByteBuffer buffer, int base) {
+        final int capacity = buffer.getInt(base);
+        mBuffer = buffer;
+        mMask = capacity - 1;
+        mCount = buffer.getInt(base + 4);
+        mKeysOffset = base + HEADER_SIZE;
+        mNamesOffset = mKeysOffset + 4 * capacity;
+        mShortNamesOffset = mNamesOffset + 4 * capacity;
+        mPoolOffset = mShortNamesOffset + 4 * capacity;
+    }
+
+    /**
+     * Checks that the table at {@code base} in {@code buffer} is consistent: a power of two
+     * capacity that fits the buffer, at least one empty slot so {@link #find} ends, and
+     * name offsets that stay inside the pool. Meant for tables read from a file.
+     */
+    static boolean isValid(ByteBuffer buffer, int base) {
+        final int limit = buffer.limit();
+        if (base < 0 || limit - base < HEADER_SIZE) {
+            return false;
+        }
+        final int capacity = buffer.getInt(base);
+        final int count = buffer.getInt(base + 4);
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0
+                || capacity > (limit - base - HEADER_SIZE) / 12
+                || count < 0 || count >= capacity) {
+            return false;
+        }
+        final int keysOffset = base + HEADER_SIZE;
+        final int namesOffset = keysOffset + 4 * capacity;
+        final int shortNamesOffset = namesOffset + 4 * capacity;
+        final int poolOffset = shortNamesOffset + 4 * capacity;
+        int used = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            if (buffer.getInt(keysOffset + 4 * slot) == Plmn.INVALID) {
+                continue;
+            }
+            used++;
+            int shortName = buffer.getInt(shortNamesOffset + 4 * slot);
+            if (!isValidName(buffer, poolOffset, buffer.getInt(namesOffset + 4 * slot))
+                    || (shortName != -1 && !isValidName(buffer, poolOffset, shortName))) {
+                return false;
+            }
+        }
+        return used == count;
+    }
+
+    private static boolean isValidName(ByteBuffer buffer, int poolOffset, int offset) {
+        if (offset < 0 || offset > buffer.limit() - poolOffset - 2) {
+            return false;
+        }
+        int len = buffer.getShort(poolOffset + offset) & 0xffff;
+        return len <= buffer.limit() - poolOffset - offset - 2;
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * Returns the slot holding {@code key}, or -1.
+     */
+    public int find(int key) {
+        if (key == Plmn.INVALID) {
+            return -1;
+        }
+        for (int slot = hash(key) & mMask; ; slot = (slot + 1) & mMask) {
+            int k = mBuffer.getInt(mKeysOffset + 4 * slot);
+            if (k == key) {
+                return slot;
+            }
+            if (k == Plmn.INVALID) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Returns the slot holding {@code key}, or the slot of its MCC-only entry, or -1.
+     */
+    public int findWithMccFallback(int key) {
+        int slot = find(key);
+        return slot >= 0 || key == Plmn.INVALID ? slot : find(Plmn.mccKey(key));
+    }
+
+    /**
+     * Returns the long name in a slot returned by {@link #find}.
+     */
+    public String nameAt(int slot) {
+        return decode(mBuffer.getInt(mNamesOffset + 4 * slot));
+    }
+
+    /**
+     * Returns the short name in a slot returned by {@link #find}, or null if there is none.
+     */
+    public String shortNameAt(int slot) {
+        return decode(mBuffer.getInt(mShortNamesOffset + 4 * slot));
+    }
+
+    private String decode(int offset) {
+        if (offset < 0) {
+            return null;
+        }
+        final int position = mPoolOffset + offset;
+        int len = mBuffer.getShort(position) & 0xffff;
+        byte[] bytes = new byte[len];
+        for (int i = 0; i < len; i++) {
+            bytes[i] = mBuffer.get(position + 2 + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Collects entries and lays them out as a table. Later puts of the same key win.
+     */
+    public static final class Builder {
+        private int[] mKeys = new int[64];
+        private String[] mNames = new String[64];
+        private String[] mShortNames = new String[64];
+        private int mSize;
+
+        /**
+         * Adds an entry for a 5 or 6 digit numeric, or for a whole country if
+         * {@code numeric} is a 3 digit MCC.
+         */
+        public Builder put(String numeric, String name, String shortName) {
+            int key = Plmn.packWithMcc(numeric);
+            if (key == Plmn.INVALID || name == null) {
+                return this;
+            }
+            if (mSize == mKeys.length) {
+                mKeys = Arrays.copyOf(mKeys, mSize * 2);
+                mNames = Arrays.copyOf(mNames, mSize * 2);
+                mShortNames = Arrays.copyOf(mShortNames, mSize * 2);
+            }
+            mKeys[mSize] = key;
+            mNames[mSize] = name;
+            mShortNames[mSize] = shortName;
+            mSize++;
+            return this;
+        }
+
+        /**
+         * Returns the encoded table, to be wrapped by {@link PlmnTable#PlmnTable}.
+         */
+        public byte[] toByteArray() {
+            int capacity = 16;
+            while (capacity < mSize * 2) {
+                capacity <<= 1;
+            }
+            final int mask = capacity - 1;
+
+            int[] keys = new int[capacity];
+            int[] names = new int[capacity];
+            Arrays.fill(keys, Plmn.INVALID);
+            int count = 0;
+            for (int i = 0; i < mSize; i++) {
+                int slot = hash(mKeys[i]) & mask;
+                while (keys[slot] != Plmn.INVALID && keys[slot] != mKeys[i]) {
+                    slot = (slot + 1) & mask;
+                }
+                if (keys[slot] == Plmn.INVALID) {
+                    count++;
+                }
+                keys[slot] = mKeys[i];
+                names[slot] = i;
+            }
+
+            HashMap<String, Integer> pooled = new HashMap<String, Integer>();
+            ByteBuffer pool = ByteBuffer.allocate(64);
+            int[] nameOffsets = new int[capacity];
+            int[] shortNameOffsets = new int[capacity];
+            for (int slot = 0; slot < capacity; slot++) {
+                if (keys[slot] == Plmn.INVALID) {
+                    continue;
+                }
+                pool = intern(pool, pooled, mNames[names[slot]]);
+                nameOffsets[slot] = pooled.get(mNames[names[slot]]);
+                String shortName = mShortNames[names[slot]];
+                if (shortName != null) {
+                    pool = intern(pool, pooled, shortName);
+                    shortNameOffsets[slot] = pooled.get(shortName);
+                } else {
+                    shortNameOffsets[slot] = -1;
+                }
+            }
+
+            ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + 12 * capacity + pool.position());
+            out.putInt(capacity).putInt(count);
+            for (int slot = 0; slot < capacity; slot++) {
+                out.putInt(keys[slot]);
+            }
+            for (int slot = 0; slot < capacity; slot++) {
+                out.putInt(nameOffsets[slot]);
+            }
+            for (int slot = 0; slot < capacity; slot++) {
+                out.putInt(shortNameOffsets[slot]);
+            }
+            out.put(pool.array(), 0, pool.position());
+            return out.array();
+        }
+
+        // Appends name to the pool unless it is already there, returns the (grown) pool.
+        private static ByteBuffer intern(ByteBuffer pool, HashMap<String, Integer> pooled,
+                String name) {
+            if (pooled.containsKey(name)) {
+                return pool;
+            }
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xffff) {
+                bytes = Arrays.copyOf(bytes, 0xffff);
+            }
+            if (pool.remaining() < 2 + bytes.length) {
+                ByteBuffer grown = ByteBuffer.allocate(
+                        Math.max(pool.capacity() * 2, pool.position() + 2 + bytes.length));
+                pool.flip();
+                pool = grown.put(pool);
+            }
+            pooled.put(name, pool.position());
+            pool.putShort((short) bytes.length).put(bytes);
+            return pool;
+        }
+    }
+}
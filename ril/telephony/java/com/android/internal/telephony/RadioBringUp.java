@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import java.io.PrintWriter;
+
+import android.os.AsyncResult;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+import android.telephony.Rlog;
+
+/**
+ * Runs the requests the RIL sends once rild is connected as one batch.
+ *
+ * The steps don't depend on each other, so all of them are sent right away and pipelined
+ * on the socket. This class only tracks timing: each step completes through its own
+ * Message, and the time of every step and of the whole batch (time to radio ready) is
+ * kept for dump(). Ordering between steps is not supported.
+ * {@hide}
+ */
+public final class RadioBringUp extends Handler {
+    private static final String LOG_TAG = "RadioBringUp";
+
+    private static final int EVENT_STEP_DONE = 1;
+    private static final int MAX_STEPS = 16;
+
+    /**
+     * A request of the bring-up. {@code done} must be passed as its result message.
+     */
+    public interface Step {
+        void start(Message done);
+    }
+
+    private final String[] mNames = new String[MAX_STEPS];
+    private final Step[] mSteps = new Step[MAX_STEPS];
+    private final long[] mStartMs = new long[MAX_STEPS];
+    private final long[] mDoneMs = new long[MAX_STEPS];
+    private final boolean[] mFailed = new boolean[MAX_STEPS];
+    private int mCount;
+    private int mDone;
+    private long mBeginMs;
+    private long mReadyMs = -1;
+
+    public RadioBringUp(Looper looper) {
+        super(looper);
+    }
+
+    /**
+     * Adds a step. Only to be called before {@link #start}.
+     */
+    public synchronized void addStep(String name, Step step) {
+        if (mCount == MAX_STEPS) {
+            throw new IllegalStateException("Too many bring-up steps");
+        }
+        mNames[mCount] = name;
+        mSteps[mCount] = step;
+        mCount++;
+    }
+
+    /**
+     * Sends every step.
+     */
+    public synchronized void start() {
+        mBeginMs = SystemClock.elapsedRealtime();
+        for (int i = 0; i < mCount; i++) {
+            mStartMs[i] = SystemClock.elapsedRealtime();
+            mSteps[i].start(obtainMessage(EVENT_STEP_DONE, i, 0));
+        }
+    }
+
+    @Override
+    public synchronized void handleMessage(Message msg) {
+        if (msg.what != EVENT_STEP_DONE) {
+            return;
+        }
+        final int i = msg.arg1;
+        mDoneMs[i] = SystemClock.elapsedRealtime();
+        AsyncResult ar = (AsyncResult) msg.obj;
+        if (ar != null && ar.exception != null) {
+            mFailed[i] = true;
+            Rlog.w(LOG_TAG, mNames[i] + " failed: " + ar.exception);
+        }
+        mDone |= 1 << i;
+        if (mDone == (1 << mCount) - 1) {
+            mReadyMs = mDoneMs[i] - mBeginMs;
+            Rlog.d(LOG_TAG, "Radio ready in " + mReadyMs + "ms");
+        }
+    }
+
+    public synchronized void dump(PrintWriter pw) {
+        pw.println(" bring-up: readyMs=" + mReadyMs);
+        for (int i = 0; i < mCount; i++) {
+            boolean done = (mDone & (1 << i)) != 0;
+            pw.println("  " + mNames[i] + ": sentAtMs=" + (mStartMs[i] - mBeginMs)
+                    + (done ? " tookMs=" + (mDoneMs[i] - mStartMs[i]) : " pending")
+                    + (mFailed[i] ? " failed" : ""));
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Per request type latency of solicited RIL requests.
+ *
+ * The round trip runs from send() until processSolicited() reads the response, which
+ * is mostly the modem. The processing time runs from there until the response was
+ * decoded and delivered, which is the Java side. Both are kept in a
+ * {@link LatencyHistogram} per request code, created on first use.
+ * {@hide}
+ */
+public final class RequestLatencyTracker {
+    private static final int SLOTS = 256;
+    private static final int MASK = SLOTS - 1;
+    private static final long EMPTY = -1L;
+    // Request codes from here on share one pair of histograms
+    private static final int MAX_REQUEST = 192;
+
+    // serial << 32 | request of the in-flight requests, and when they were sent
+    private final AtomicLongArray mPending = new AtomicLongArray(SLOTS);
+    private final AtomicLongArray mSentNanos = new AtomicLongArray(SLOTS);
+    private final AtomicReferenceArray<LatencyHistogram> mRoundTrip =
+            new AtomicReferenceArray<LatencyHistogram>(MAX_REQUEST + 1);
+    private final AtomicReferenceArray<LatencyHistogram> mProcessing =
+            new AtomicReferenceArray<LatencyHistogram>(MAX_REQUEST + 1);
+
+    public RequestLatencyTracker() {
+        for (int i = 0; i < SLOTS; i++) {
+            mPending.set(i, EMPTY);
+        }
+    }
+
+    /**
+     * Notes that {@code request} was sent with {@code serial}.
+     */
+    public void onSend(int serial, int request) {
+        final int slot = serial & MASK;
+        mSentNanos.set(slot, System.nanoTime());
+        mPending.set(slot, ((long) serial << 32) | (request & 0x7fffffffL));
+    }
+
+    /**
+     * Records the round trip of {@code serial}, whose response arrived at
+     * {@code nowNanos}, and returns its request code, or -1 if it wasn't tracked.
+     */
+    public int onResponse(int serial, long nowNanos) {
+        final int slot = serial & MASK;
+        long entry = mPending.get(slot);
+        if (entry == EMPTY || (int) (entry >> 32) != serial) {
+            return -1;
+        }
+        long sent = mSentNanos.get(slot);
+        if (!mPending.compareAndSet(slot, entry, EMPTY)) {
+            return -1;
+        }
+        final int request = (int) entry;
+        histogram(mRoundTrip, request).recordNanos(nowNanos - sent);
+        return request;
+    }
+
+    /**
+     * Records how long the response of {@code request} took to process since
+     * {@code startNanos}.
+     */
+    public void onProcessed(int request, long startNanos) {
+        if (request >= 0) {
+            histogram(mProcessing, request).recordNanos(System.nanoTime() - startNanos);
+        }
+    }
+
+    private static LatencyHistogram histogram(AtomicReferenceArray<LatencyHistogram> array,
+            int request) {
+        final int i = Math.min(request, MAX_REQUEST);
+        LatencyHistogram h = array.get(i);
+        if (h == null) {
+            array.compareAndSet(i, null, new LatencyHistogram());
+            h = array.get(i);
+        }
+        return h;
+    }
+
+    public void reset() {
+        for (int i = 0; i <= MAX_REQUEST; i++) {
+            LatencyHistogram h = mRoundTrip.get(i);
+            if (h != null) {
+                h.reset();
+            }
+            h = mProcessing.get(i);
+            if (h != null) {
+                h.reset();
+            }
+        }
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println(" request latency (round trip / processing):");
+        for (int i = 0; i <= MAX_REQUEST; i++) {
+            LatencyHistogram h = mRoundTrip.get(i);
+            if (h == null || h.getCount() == 0) {
+                continue;
+            }
+            String name = i < MAX_REQUEST ? RIL.requestToString(i) : "OTHER";
+            h.dump(pw, "  " + name);
+            h = mProcessing.get(i);
+            if (h != null) {
+                h.dump(pw, "  " + name + " processing");
+            }
+        }
+    }
+}
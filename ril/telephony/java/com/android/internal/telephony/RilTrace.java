@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import java.io.PrintWriter;
+
+import android.os.SystemClock;
+import android.os.SystemProperties;
+
+/**
+ * Preallocated ring buffer of binary RIL trace records.
+ *
+ * Each record is a timestamp, a kind, a request or response code, a serial and two
+ * kind specific ints. Nothing is formatted until {@link #dump}. Tracing is enabled with
+ * persist.radio.ril_trace=true and read once when the class loads, so call sites guarded
+ * by {@link #ENABLED} cost a single branch when it is off.
+ * {@hide}
+ */
+public final class RilTrace {
+    public static final boolean ENABLED =
+            SystemProperties.getBoolean("persist.radio.ril_trace", false);
+
+    public static final int KIND_REQUEST = 1;
+    public static final int KIND_RESPONSE = 2;
+    public static final int KIND_UNSOL = 3;
+    public static final int KIND_CALL = 4;
+    public static final int KIND_UUS = 5;
+    public static final int KIND_DATA_CALL = 6;
+
+    private static final int RECORDS = 512;
+    // timestamp, kind << 32 | code, serial, a << 32 | b
+    private static final int LONGS_PER_RECORD = 4;
+
+    private final long[] mRing = ENABLED ? new long[RECORDS * LONGS_PER_RECORD] : null;
+    private long mRecorded;
+
+    /**
+     * Records an entry. Callers check {@link #ENABLED} first.
+     */
+    public synchronized void record(int kind, int code, int serial, int a, int b) {
+        int pos = (int) (mRecorded++ % RECORDS) * LONGS_PER_RECORD;
+        mRing[pos] = SystemClock.elapsedRealtimeNanos();
+        mRing[pos + 1] = ((long) kind << 32) | (code & 0xffffffffL);
+        mRing[pos + 2] = serial;
+        mRing[pos + 3] = ((long) a << 32) | (b & 0xffffffffL);
+    }
+
+    public synchronized void dump(PrintWriter pw) {
+        if (!ENABLED) {
+            pw.println(" trace: disabled");
+            return;
+        }
+        long first = Math.max(0, mRecorded - RECORDS);
+        pw.println(" trace: " + (mRecorded - first) + " of " + mRecorded + " records");
+        for (long i = first; i < mRecorded; i++) {
+            int pos = (int) (i % RECORDS) * LONGS_PER_RECORD;
+            int kind = (int) (mRing[pos + 1] >>> 32);
+            int code = (int) mRing[pos + 1];
+            int a = (int) (mRing[pos + 3] >>> 32);
+            int b = (int) mRing[pos + 3];
+            pw.println("  " + (mRing[pos] / 1000) + "us " + format(kind, code,
+                    (int) mRing[pos + 2], a, b));
+        }
+    }
+
+    private static String format(int kind, int code, int serial, int a, int b) {
+        switch (kind) {
+            case KIND_REQUEST:
+                return "[" + serial + "]> " + RIL.requestToString(code);
+            case KIND_RESPONSE:
+                return "[" + serial + "]< " + RIL.requestToString(code) + " error=" + a;
+            case KIND_UNSOL:
+                return "[UNSL]< " + RIL.responseToString(code);
+            case KIND_CALL:
+                return "call index=" + serial + " state=" + code + " toa=" + a
+                        + " voicePrivacy=" + b;
+            case KIND_UUS:
+                return "call index=" + serial + " uus type=" + code + " dcs=" + a
+                        + " length=" + b;
+            case KIND_DATA_CALL:
+                return "data call cid=" + serial + " status=" + code + " active=" + a
+                        + " addresses=" + b;
+            default:
+                return "kind=" + kind + " code=" + code + " serial=" + serial
+                        + " a=" + a + " b=" + b;
+        }
+    }
+}
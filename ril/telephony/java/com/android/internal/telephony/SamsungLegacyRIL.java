@@ -21,12 +21,15 @@ import static com.android.internal.telephony.RILConstants.*;
 import android.content.Context;
 import android.media.AudioManager;
 import android.os.AsyncResult;
+import android.os.AsyncTask;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Message;
 import android.os.Parcel;
 import android.os.SystemClock;
 import android.os.SystemProperties;
 import android.text.TextUtils;
+import android.util.SparseArray;
 import android.telephony.PhoneNumberUtils;
 import android.telephony.Rlog;
 import android.telephony.SignalStrength;
@@ -39,8 +42,11 @@ import com.android.internal.telephony.uicc.IccCardApplicationStatus;
 import com.android.internal.telephony.uicc.IccCardStatus;
 import com.android.internal.telephony.uicc.IccUtils;
 
+import java.io.FileDescriptor;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 
 /**
@@ -50,11 +56,60 @@ import java.util.Collections;
 public class SamsungLegacyRIL extends RIL implements CommandsInterface {
 
     protected static final int EVENT_RIL_CONNECTED = 1;
+    protected static final int EVENT_SIGNAL_STRENGTH_COALESCED = 2;
     private boolean isGSM = false;
 
+    // Signal strength reports within this window of the last notification are coalesced,
+    // only the newest one is delivered when it ends. 0 delivers every change right away.
+    private static final String PROPERTY_SIGNAL_COALESCE_MS = "persist.radio.ss_coalesce_ms";
+    private static final int DEFAULT_SIGNAL_COALESCE_MS = 500;
+    private static final int SIGNAL_STRENGTH_INTS = 12;
+
+    private final int mSignalCoalesceMs;
+    private final Object mSignalLock = new Object();
+    // Decode buffer, and the last decoded values to drop repeats against
+    private final int[] mSignalBuffer = new int[SIGNAL_STRENGTH_INTS];
+    private final int[] mLastSignal = new int[SIGNAL_STRENGTH_INTS];
+    private boolean mHasLastSignal;
+    private SignalStrength mPendingSignal;
+    private long mLastSignalNotifyTime;
+    private long mSignalUnchanged;
+    private long mSignalCoalesced;
+
+    // Last raw and decoded voice [0] and data [1] registration state, and the phone type
+    // they were decoded for. Only touched from the receiver thread.
+    private final String[][] mLastRegRaw = new String[2][];
+    private final String[][] mLastRegDecoded = new String[2][];
+    private final boolean[] mLastRegGsm = new boolean[2];
+
+    // Last NITZ delivered, without the garbage after the dst field
+    private volatile String mLastNitz = "";
+    private volatile long mNitzSuppressed;
+    private volatile long mRegStateReused;
+
     private AudioManager mAudioManager;
     private ConnectionStateListener mConnectionStateListener;
     private TelephonyMetrics mMetrics = TelephonyMetrics.getInstance();
+    private final RilTrace mTrace = new RilTrace();
+    // Serials of in-flight requests whose responses processSolicited() decodes itself
+    private final PendingRequestTable mOverridden = new PendingRequestTable();
+    private final RequestLatencyTracker mLatency = new RequestLatencyTracker();
+    private final ParcelCapture mCapture;
+    // The fixed Samsung fields after the number and CLIR mode of a dial request, without
+    // and with the UUS absent marker. Written once, only ever appended from.
+    private final Parcel mDialTail = Parcel.obtain();
+    private final Parcel mDialTailNoUus = Parcel.obtain();
+    // From the dial and answer calls until the request was handed to the sender thread
+    private final LatencyHistogram mDialSendPath = new LatencyHistogram();
+    private final LatencyHistogram mAnswerSendPath = new LatencyHistogram();
+    private final UnsolDispatcher mUnsolDispatcher;
+    // RIL's constructor already starts the receiver thread, so responses and requests
+    // can arrive before the fields of this class are set. Until this is set they all take
+    // the plain RIL paths. Written last in the constructor, which publishes the rest.
+    private volatile boolean mReady;
+    private final UnsolHandlerRegistry mUnsolHandlers = new UnsolHandlerRegistry();
+    // Requests of the last RIL_UNSOL_RIL_CONNECTED and their timing
+    private volatile RadioBringUp mRadioBringUp;
 
     private class ConnectionStateListener extends Handler {
         @Override
@@ -64,6 +119,9 @@ public class SamsungLegacyRIL extends RIL implements CommandsInterface {
                     riljLogv("RIL connected");
                     mAudioManager.setParameters("ril_state_connected=1");
                     break;
+                case EVENT_SIGNAL_STRENGTH_COALESCED:
+                    notifyPendingSignalStrength();
+                    break;
                 default:
                     riljLogv("Unknown connection event");
                     break;
@@ -78,14 +136,85 @@ public class SamsungLegacyRIL extends RIL implements CommandsInterface {
     public SamsungLegacyRIL(Context context, int preferredNetworkType,
             int cdmaSubscription, Integer instanceId) {
         super(context, preferredNetworkType, cdmaSubscription, instanceId);
+        // Keep the spn-conf load off the first RIL_REQUEST_OPERATOR response
+        Operators.preload();
         mAudioManager = (AudioManager)mContext.getSystemService(Context.AUDIO_SERVICE);
         mConnectionStateListener = new ConnectionStateListener();
+        mSignalCoalesceMs = SystemProperties.getInt(PROPERTY_SIGNAL_COALESCE_MS,
+                DEFAULT_SIGNAL_COALESCE_MS);
+        mCapture = ParcelCapture.ENABLED ? new ParcelCapture(getSlotId()) : null;
+        HandlerThread bulkThread = new HandlerThread("RilUnsolBulk" + getSlotId());
+        bulkThread.start();
+        mUnsolDispatcher = new UnsolDispatcher(bulkThread.getLooper(),
+                new UnsolDispatcher.Target() {
+                    @Override
+                    public void dispatchUnsolicited(Parcel p, int type) {
+                        handleUnsolicited(p, type, 0, p.readInt());
+                    }
+                });
+        registerUnsolHandlers();
+        writeDialTail(mDialTail);
+        writeDialTail(mDialTailNoUus);
+        mDialTailNoUus.writeInt(0); // UUS information is absent
         registerForRilConnected(mConnectionStateListener, EVENT_RIL_CONNECTED, null); 
+        mReady = true;
     }
 
+    // UiccController polls the SIM status over and over, mostly for an unchanged card.
+    // The raw words of the last reply are kept, and a reply with the same words for the
+    // same phone type returns the IccCardStatus decoded from the last one, which must
+    // not be modified. Only touched from the receiver thread.
+    private int[] mSimStatusWords = new int[64];
+    private int[] mSimStatusScratch = new int[64];
+    private int mSimStatusWordCount = -1;
+    private boolean mSimStatusGsm;
+    private IccCardStatus mSimStatus;
+    private volatile long mSimStatusReused;
+
     @Override
     protected Object
     responseIccCardStatus(Parcel p) {
+        final int start = p.dataPosition();
+        final int length = p.dataSize() - start;
+        if ((length & 3) != 0) {
+            return decodeIccCardStatus(p);
+        }
+        final int count = length >> 2;
+        if (mSimStatusScratch.length < count) {
+            mSimStatusScratch = new int[count];
+        }
+        int[] words = mSimStatusScratch;
+        for (int i = 0; i < count; i++) {
+            words[i] = p.readInt();
+        }
+        if (mSimStatus != null && count == mSimStatusWordCount && isGSM == mSimStatusGsm
+                && wordsEqual(words, mSimStatusWords, count)) {
+            mSimStatusReused++;
+            return mSimStatus;
+        }
+
+        p.setDataPosition(start);
+        IccCardStatus cardStatus = decodeIccCardStatus(p);
+        mSimStatusScratch = mSimStatusWords;
+        mSimStatusWords = words;
+        mSimStatusWordCount = count;
+        mSimStatusGsm = isGSM;
+        mSimStatus = cardStatus;
+        return cardStatus;
+    }
+
+    private static boolean
+    wordsEqual(int[] a, int[] b, int count) {
+        for (int i = 0; i < count; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private IccCardStatus
+    decodeIccCardStatus(Parcel p) {
         IccCardApplicationStatus appStatus;
 
         IccCardStatus cardStatus = new IccCardStatus();
@@ -155,6 +284,7 @@ public class SamsungLegacyRIL extends RIL implements CommandsInterface {
 
     public void
     acceptCall(int type, Message result) {
+        final long startNanos = System.nanoTime();
         RILRequest rr
                 = RILRequest.obtain(RIL_REQUEST_ANSWER, result);
 
@@ -165,6 +295,7 @@ public class SamsungLegacyRIL extends RIL implements CommandsInterface {
         rr.mParcel.writeInt(1);
         rr.mParcel.writeInt(type);
         send(rr);
+        mAnswerSendPath.recordNanos(System.nanoTime() - startNanos);
     }
 
     @Override
@@ -175,12 +306,15 @@ public class SamsungLegacyRIL extends RIL implements CommandsInterface {
 
     @Override
     protected Object responseSignalStrength(Parcel p) {
-        int numInts = 12;
-        int response[];
+        synchronized (mSignalLock) {
+            readSignalStrength(p, mSignalBuffer);
+            return newSignalStrength(mSignalBuffer);
+        }
+    }
 
+    private static void readSignalStrength(Parcel p, int[] response) {
         // Get raw data
-        response = new int[numInts];
-        for (int i = 0; i < numInts; i++) {
+        for (int i = 0; i < SIGNAL_STRENGTH_INTS; i++) {
             response[i] = p.readInt();
         }
         //gsm
@@ -189,9 +323,74 @@ public class SamsungLegacyRIL extends RIL implements CommandsInterface {
         response[2] %= 256;
         response[4] %= 256;
         response[7] &= 0xff;
+    }
 
+    private static SignalStrength newSignalStrength(int[] response) {
         return new SignalStrength(response[0], response[1], response[2], response[3], response[4], response[5], response[6], response[7], response[8], response[9], response[10], response[11], true);
+    }
 
+    // The modem reports signal strength continuously on weak coverage. Drop reports that
+    // didn't change and deliver at most one per mSignalCoalesceMs, the newest one.
+    private void onUnsolSignalStrength(Parcel p) {
+        SignalStrength notify = null;
+        synchronized (mSignalLock) {
+            readSignalStrength(p, mSignalBuffer);
+            if (mHasLastSignal && Arrays.equals(mSignalBuffer, mLastSignal)) {
+                mSignalUnchanged++;
+                return;
+            }
+            System.arraycopy(mSignalBuffer, 0, mLastSignal, 0, SIGNAL_STRENGTH_INTS);
+            mHasLastSignal = true;
+
+            SignalStrength ss = newSignalStrength(mSignalBuffer);
+            long now = SystemClock.elapsedRealtime();
+            long sinceLast = now - mLastSignalNotifyTime;
+            if (sinceLast >= mSignalCoalesceMs) {
+                mLastSignalNotifyTime = now;
+                mPendingSignal = null;
+                notify = ss;
+            } else {
+                if (mPendingSignal != null) {
+                    mSignalCoalesced++;
+                } else {
+                    mConnectionStateListener.sendEmptyMessageDelayed(
+                            EVENT_SIGNAL_STRENGTH_COALESCED, mSignalCoalesceMs - sinceLast);
+                }
+                mPendingSignal = ss;
+            }
+        }
+        if (notify != null) {
+            notifySignalStrength(notify);
+        }
+    }
+
+    private void notifyPendingSignalStrength() {
+        SignalStrength notify;
+        synchronized (mSignalLock) {
+            notify = mPendingSignal;
+            mPendingSignal = null;
+            // Nothing left if an immediate notify already went out, keep its window
+            if (notify != null) {
+                mLastSignalNotifyTime = SystemClock.elapsedRealtime();
+            }
+        }
+        if (notify != null) {
+            notifySignalStrength(notify);
+        }
+    }
+
+    private void notifySignalStrength(SignalStrength ss) {
+        if (RILJ_LOGV) riljLogv("[UNSL]< " + responseToString(RIL_UNSOL_SIGNAL_STRENGTH) + " " + ss);
+        if (mSignalStrengthRegistrant != null) {
+            mSignalStrengthRegistrant.notifyRegistrant(new AsyncResult(null, ss, null));
+        }
+    }
+
+    // After a radio state change listeners expect a fresh report even if it is the same.
+    private void resetSignalStrengthFilter() {
+        synchronized (mSignalLock) {
+            mHasLastSignal = false;
+        }
     }
 
     @Override
@@ -200,52 +399,112 @@ public class SamsungLegacyRIL extends RIL implements CommandsInterface {
         isGSM = (phoneType != RILConstants.CDMA_PHONE);
     }
 
-    @Override
-    protected Object
-    responseCallList(Parcel p) {
-        int num;
+    // Raw fields of one call as read from the parcel, and the DriverCall built from them.
+    private static final class CallSnapshot {
+        int state;
+        int index;
+        int toa;
+        int isMpty;
+        int isMT;
+        int als;
         int voiceSettings;
-        ArrayList<DriverCall> response;
+        int isVoicePrivacy;
+        String number;
+        int numberPresentation;
+        String name;
+        int namePresentation;
+        int uusInfoPresent;
+        int uusType;
+        int uusDcs;
+        byte[] uusData;
         DriverCall dc;
 
-        num = p.readInt();
-        response = new ArrayList<DriverCall>(num);
+        void read(Parcel p) {
+            state = p.readInt();
+            index = p.readInt();
+            toa = p.readInt();
+            isMpty = p.readInt();
+            isMT = p.readInt();
+            als = p.readInt();
+            voiceSettings = p.readInt();
 
-        if (RILJ_LOGV) {
-            riljLog("responseCallList: num=" + num +
-                    " mEmergencyCallbackModeRegistrant=" + mEmergencyCallbackModeRegistrant +
-                    " mTestingEmergencyCall=" + mTestingEmergencyCall.get());
+            p.readInt(); // type
+            p.readInt(); // domain
+            p.readString(); // extras
+
+            isVoicePrivacy = p.readInt();
+            number = p.readString();
+            numberPresentation = p.readInt();
+            name = p.readString();
+            namePresentation = p.readInt();
+            uusInfoPresent = p.readInt();
+            if (uusInfoPresent == 1) {
+                uusType = p.readInt();
+                uusDcs = p.readInt();
+                uusData = p.createByteArray();
+            } else {
+                uusType = 0;
+                uusDcs = 0;
+                uusData = null;
+            }
         }
-        for (int i = 0 ; i < num ; i++) {
-            dc = new DriverCall();
-
-            dc.state = DriverCall.stateFromCLCC(p.readInt());
-            dc.index = p.readInt();
-            dc.TOA = p.readInt();
-            dc.isMpty = (0 != p.readInt());
-            dc.isMT = (0 != p.readInt());
-            dc.als = p.readInt();
-            voiceSettings = p.readInt();
-            dc.isVoice = (0 == voiceSettings) ? false : true;
 
-            int type = p.readInt();
-            int domain = p.readInt();
-            String extras = p.readString();
+        boolean sameAs(CallSnapshot o) {
+            return state == o.state && index == o.index && toa == o.toa
+                    && isMpty == o.isMpty && isMT == o.isMT && als == o.als
+                    && voiceSettings == o.voiceSettings && isVoicePrivacy == o.isVoicePrivacy
+                    && TextUtils.equals(number, o.number)
+                    && numberPresentation == o.numberPresentation
+                    && TextUtils.equals(name, o.name)
+                    && namePresentation == o.namePresentation
+                    && uusInfoPresent == o.uusInfoPresent
+                    && uusType == o.uusType && uusDcs == o.uusDcs
+                    && Arrays.equals(uusData, o.uusData);
+        }
+    }
 
-            dc.isVoicePrivacy = (0 != p.readInt());
-            dc.number = p.readString();
-            dc.numberPresentation = DriverCall.presentationFromCLIP(p.readInt());
-            dc.name = p.readString();
-            Rlog.d(RILJ_LOG_TAG, "responseCallList dc.name = " + dc.name);
+    // Calls of the previous poll by call index, the ones of the current poll are collected
+    // in mNextCalls and the two are swapped afterwards.
+    private SparseArray<CallSnapshot> mLastCalls = new SparseArray<CallSnapshot>();
+    private SparseArray<CallSnapshot> mNextCalls = new SparseArray<CallSnapshot>();
+    private CallSnapshot mScratchCall = new CallSnapshot();
+    // Last voice privacy state sent to the registrants, -1 if none since the last call ended.
+    // One state for the whole call list, on while any call has voice privacy.
+    private int mLastVoicePrivacy = -1;
+    // Calls decoded anew and calls that kept their DriverCall, over all polls
+    private volatile long mCallsChanged;
+    private volatile long mCallsReused;
+
+    private DriverCall
+    newDriverCall(CallSnapshot c) {
+        DriverCall dc = new DriverCall();
+
+        dc.state = DriverCall.stateFromCLCC(c.state);
+        dc.index = c.index;
+        dc.TOA = c.toa;
+        dc.isMpty = (0 != c.isMpty);
+        dc.isMT = (0 != c.isMT);
+        dc.als = c.als;
+        dc.isVoice = (0 == c.voiceSettings) ? false : true;
+        dc.isVoicePrivacy = (0 != c.isVoicePrivacy);
+        dc.numberPresentation = DriverCall.presentationFromCLIP(c.numberPresentation);
+        dc.name = c.name;
+        if (RILJ_LOGV) riljLogv("responseCallList dc.name = " + dc.name);
+        if (RilTrace.ENABLED) {
+            mTrace.record(RilTrace.KIND_CALL, c.state, c.index, c.toa, c.isVoicePrivacy);
+        }
 
-            dc.namePresentation = DriverCall.presentationFromCLIP(p.readInt());
-            int uusInfoPresent = p.readInt();
-            if (uusInfoPresent == 1) {
-                dc.uusInfo = new UUSInfo();
-                dc.uusInfo.setType(p.readInt());
-                dc.uusInfo.setDcs(p.readInt());
-                byte[] userData = p.createByteArray();
-                dc.uusInfo.setUserData(userData);
+        dc.namePresentation = DriverCall.presentationFromCLIP(c.namePresentation);
+        if (c.uusInfoPresent == 1) {
+            dc.uusInfo = new UUSInfo();
+            dc.uusInfo.setType(c.uusType);
+            dc.uusInfo.setDcs(c.uusDcs);
+            dc.uusInfo.setUserData(c.uusData);
+            if (RilTrace.ENABLED) {
+                mTrace.record(RilTrace.KIND_UUS, c.uusType, c.index, c.uusDcs,
+                        c.uusData != null ? c.uusData.length : 0);
+            }
+            if (RILJ_LOGV) {
                 riljLogv(String.format("Incoming UUS : type=%d, dcs=%d, length=%d",
                                 dc.uusInfo.getType(), dc.uusInfo.getDcs(),
                                 dc.uusInfo.getUserData().length));
@@ -253,16 +512,58 @@ public class SamsungLegacyRIL extends RIL implements CommandsInterface {
                         + new String(dc.uusInfo.getUserData()));
                 riljLogv("Incoming UUS : data (hex): "
                         + IccUtils.bytesToHexString(dc.uusInfo.getUserData()));
-            } else {
-                riljLogv("Incoming UUS : NOT present!");
             }
+        } else {
+            if (RILJ_LOGV) riljLogv("Incoming UUS : NOT present!");
+        }
 
-            // Make sure there's a leading + on addresses with a TOA of 145
-            dc.number = PhoneNumberUtils.stringFromStringAndTOA(dc.number, dc.TOA);
+        // Make sure there's a leading + on addresses with a TOA of 145
+        dc.number = PhoneNumberUtils.stringFromStringAndTOA(c.number, dc.TOA);
+        return dc;
+    }
 
-            response.add(dc);
+    // The call list is polled over and over during a call. Calls whose raw fields didn't
+    // change since the last poll keep their DriverCall, and the voice privacy registrants
+    // only hear about actual flips.
+    @Override
+    protected Object
+    responseCallList(Parcel p) {
+        int num;
+        int changed = 0;
+        boolean voicePrivacy = false;
+        ArrayList<DriverCall> response;
 
-            if (dc.isVoicePrivacy) {
+        num = p.readInt();
+        response = new ArrayList<DriverCall>(num);
+
+        if (RILJ_LOGV) {
+            riljLog("responseCallList: num=" + num +
+                    " mEmergencyCallbackModeRegistrant=" + mEmergencyCallbackModeRegistrant +
+                    " mTestingEmergencyCall=" + mTestingEmergencyCall.get());
+        }
+        mNextCalls.clear();
+        for (int i = 0 ; i < num ; i++) {
+            CallSnapshot c = mScratchCall;
+            c.read(p);
+
+            CallSnapshot last = mLastCalls.get(c.index);
+            if (last != null && last.sameAs(c)) {
+                mLastCalls.remove(c.index);
+                c = last;
+            } else {
+                c.dc = newDriverCall(c);
+                mScratchCall = last != null ? last : new CallSnapshot();
+                mLastCalls.remove(c.index);
+                changed++;
+                if (RILJ_LOGV) riljLog("responseCallList: call " + c.index + " changed");
+            }
+            mNextCalls.put(c.index, c);
+            response.add(c.dc);
+            voicePrivacy |= c.dc.isVoicePrivacy;
+        }
+        if (num > 0 && (voicePrivacy != (mLastVoicePrivacy == 1) || mLastVoicePrivacy == -1)) {
+            mLastVoicePrivacy = voicePrivacy ? 1 : 0;
+            if (voicePrivacy) {
                 mVoicePrivacyOnRegistrants.notifyRegistrants();
                 riljLog("InCall VoicePrivacy is enabled");
             } else {
@@ -270,9 +571,21 @@ public class SamsungLegacyRIL extends RIL implements CommandsInterface {
                 riljLog("InCall VoicePrivacy is disabled");
             }
         }
+        if (RILJ_LOGV) {
+            riljLog("responseCallList: " + changed + " of " + num + " calls changed, "
+                    + mLastCalls.size() + " calls gone");
+        }
+        mCallsChanged += changed;
+        mCallsReused += num - changed;
+        SparseArray<CallSnapshot> calls = mLastCalls;
+        mLastCalls = mNextCalls;
+        mNextCalls = calls;
 
         Collections.sort(response);
 
+        if (num == 0) {
+            mLastVoicePrivacy = -1;
+        }
         if ((num == 0) && mTestingEmergencyCall.getAndSet(false)) {
             if (mEmergencyCallbackModeRegistrant != null) {
                 riljLog("responseCallList: call ended, testing emergency call," +
@@ -284,81 +597,231 @@ public class SamsungLegacyRIL extends RIL implements CommandsInterface {
         return response;
     }
 
+    // Handles RIL_UNSOL_NITZ_TIME_RECEIVED like RIL does, minus the Samsung garbage and
+    // the retransmits of the same NITZ the modem sends after attach.
     private void
-    fixNitz(Parcel p) {
-        int dataPosition = p.dataPosition();
+    onUnsolNitz(Parcel p) {
         String nitz = p.readString();
+        // has bonus long containing milliseconds since boot that the NITZ time was received
         long nitzReceiveTime = p.readLong();
+        if (nitz == null) {
+            return;
+        }
 
-        String[] nitzParts = nitz.split(",");
-        if (nitzParts.length >= 4) {
-            // 0=date, 1=time+zone, 2=dst, 3(+)=garbage that confuses ServiceStateTracker
-            nitz = nitzParts[0] + "," + nitzParts[1] + "," + nitzParts[2];
-            p.setDataPosition(dataPosition);
-            p.writeString(nitz);
-            p.writeLong(nitzReceiveTime);
-            // The string is shorter now, drop the extra bytes
-            p.setDataSize(p.dataPosition());
+        // 0=date, 1=time+zone, 2=dst, 3(+)=garbage that confuses ServiceStateTracker
+        int comma = nitz.indexOf(',');
+        if (comma >= 0) comma = nitz.indexOf(',', comma + 1);
+        if (comma >= 0) comma = nitz.indexOf(',', comma + 1);
+        if (comma >= 0) {
+            if (nitz.regionMatches(0, mLastNitz, 0, comma)
+                    && mLastNitz.length() == comma) {
+                nitz = mLastNitz;
+            } else {
+                nitz = nitz.substring(0, comma);
+            }
+        }
+        if (nitz.equals(mLastNitz)) {
+            // The time in it is as old as the one delivered already
+            mNitzSuppressed++;
+            if (RILJ_LOGV) riljLogv("[UNSL]< UNSOL_NITZ_TIME_RECEIVED duplicate " + nitz);
+            return;
+        }
+        mLastNitz = nitz;
+        if (RILJ_LOGD) riljLog("[UNSL]< UNSOL_NITZ_TIME_RECEIVED " + nitz);
+
+        Object[] result = new Object[2];
+        result[0] = nitz;
+        result[1] = Long.valueOf(nitzReceiveTime);
+
+        boolean ignoreNitz = SystemProperties.getBoolean(
+                TelephonyProperties.PROPERTY_IGNORE_NITZ, false);
+        if (ignoreNitz) {
+            if (RILJ_LOGD) riljLog("ignoring UNSOL_NITZ_TIME_RECEIVED");
+        } else {
+            if (mNITZTimeRegistrant != null) {
+                mNITZTimeRegistrant.notifyRegistrant(new AsyncResult (null, result, null));
+            }
+            // in case NITZ time registrant isn't registered yet, or isn't ready
+            // to receive the information
+            mLastNITZTimeInfo = result;
         }
     }
 
+    // Unsolicited responses this RIL handles itself. Informational ones nobody waits on
+    // are flagged bulk, they are handled on the bulk lane so call, ring and SIM events
+    // never queue behind a burst of them. See UnsolDispatcher.
+    private void
+    registerUnsolHandlers() {
+        final UnsolHandlerRegistry r = mUnsolHandlers;
+        r.register(RIL_UNSOL_RIL_CONNECTED, UnsolHandlerRegistry.FLAG_CONSUMES,
+                new UnsolHandlerRegistry.Handler() {
+            @Override
+            public void handle(Parcel p, int code) {
+                int[] ret = (int[]) responseInts(p);
+                startRadioBringUp();
+                notifyRegistrantsRilConnectionChanged(ret[0]);
+            }
+        });
+        r.register(RIL_UNSOL_SIGNAL_STRENGTH,
+                UnsolHandlerRegistry.FLAG_CONSUMES | UnsolHandlerRegistry.FLAG_BULK,
+                new UnsolHandlerRegistry.Handler() {
+            @Override
+            public void handle(Parcel p, int code) {
+                onUnsolSignalStrength(p);
+            }
+        });
+        r.register(RIL_UNSOL_RESPONSE_RADIO_STATE_CHANGED, 0,
+                new UnsolHandlerRegistry.Handler() {
+            @Override
+            public void handle(Parcel p, int code) {
+                resetSignalStrengthFilter();
+                // Deliver the first NITZ after the radio comes back even if it's the same
+                mLastNitz = "";
+            }
+        });
+        r.register(RIL_UNSOL_NITZ_TIME_RECEIVED,
+                UnsolHandlerRegistry.FLAG_CONSUMES | UnsolHandlerRegistry.FLAG_BULK,
+                new UnsolHandlerRegistry.Handler() {
+            @Override
+            public void handle(Parcel p, int code) {
+                onUnsolNitz(p);
+            }
+        });
+        r.register(RIL_UNSOL_DATA_CALL_LIST_CHANGED,
+                UnsolHandlerRegistry.FLAG_CONSUMES | UnsolHandlerRegistry.FLAG_BULK,
+                new UnsolHandlerRegistry.Handler() {
+            @Override
+            public void handle(Parcel p, int code) {
+                responseDataCallList(p);
+            }
+        });
+
+        // SAMSUNG STATES
+        // 11021 RIL_UNSOL_RESPONSE_HANDOVER and 1036 RIL_UNSOL_CELL_INFO_LIST are dropped
+        final UnsolHandlerRegistry.Handler drop = new UnsolHandlerRegistry.Handler() {
+            @Override
+            public void handle(Parcel p, int code) {
+                responseVoid(p);
+            }
+        };
+        r.register(11021, UnsolHandlerRegistry.FLAG_CONSUMES | UnsolHandlerRegistry.FLAG_BULK,
+                drop);
+        r.register(1036, UnsolHandlerRegistry.FLAG_CONSUMES | UnsolHandlerRegistry.FLAG_BULK,
+                drop);
+        r.register(11010, UnsolHandlerRegistry.FLAG_CONSUMES, // RIL_UNSOL_AM
+                new UnsolHandlerRegistry.Handler() {
+            @Override
+            public void handle(Parcel p, int code) {
+                executeAm((String) responseString(p));
+            }
+        });
+        r.register(11017, // RIL_UNSOL_WB_AMR_STATE
+                UnsolHandlerRegistry.FLAG_CONSUMES | UnsolHandlerRegistry.FLAG_BULK,
+                new UnsolHandlerRegistry.Handler() {
+            @Override
+            public void handle(Parcel p, int code) {
+                setWbAmr(((int[]) responseInts(p))[0]);
+            }
+        });
+    }
+
     @Override
     protected void
     processUnsolicited (Parcel p, int type) {
-        Object ret;
-        int dataPosition = p.dataPosition(); // save off position within the Parcel
+        if (!mReady || mUnsolHandlers == null || mUnsolDispatcher == null) {
+            super.processUnsolicited(p, type);
+            return;
+        }
+        if (ParcelCapture.ENABLED) mCapture.record(p, type);
+        final long startNanos = System.nanoTime();
+        int dataPosition = p.dataPosition();
         int response = p.readInt();
+        // Responses that expect an ack are never coalesced, every one of them is acked
+        if (type == RESPONSE_UNSOLICITED && mUnsolHandlers.isBulk(response)) {
+            mUnsolDispatcher.defer(p, dataPosition, response, type);
+            return;
+        }
+        handleUnsolicited(p, type, dataPosition, response);
+        mUnsolDispatcher.onImmediate(startNanos);
+    }
+
+    // p is positioned right after the response code, which starts at dataPosition
+    private void
+    handleUnsolicited (Parcel p, int type, int dataPosition, int response) {
+        final long startNanos = System.nanoTime();
+        if (RilTrace.ENABLED) mTrace.record(RilTrace.KIND_UNSOL, response, 0, 0, 0);
+
+        if (!mUnsolHandlers.dispatch(p, response)) {
+            // Rewind the Parcel
+            p.setDataPosition(dataPosition);
 
-        switch(response) {
-            case RIL_UNSOL_RIL_CONNECTED:
-                ret = responseInts(p);
-                setRadioPower(false, null);
-                setPreferredNetworkType(mPreferredNetworkType, null);
-                setCdmaSubscriptionSource(mCdmaSubscription, null);
-                if(mRilVersion >= 8)
-                    setCellInfoListRate(Integer.MAX_VALUE, null);
-                notifyRegistrantsRilConnectionChanged(((int[])ret)[0]);
-                break;
-            case RIL_UNSOL_NITZ_TIME_RECEIVED:
-                fixNitz(p);
-                p.setDataPosition(dataPosition);
-                super.processUnsolicited(p, type);
-                break;
-            // SAMSUNG STATES
-            case 11010: // RIL_UNSOL_AM:
-                ret = responseString(p);
-                String amString = (String) ret;
-                Rlog.d(RILJ_LOG_TAG, "Executing AM: " + amString);
-
-                try {
-                    Runtime.getRuntime().exec("am " + amString);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                    Rlog.e(RILJ_LOG_TAG, "am " + amString + " could not be executed.");
+            // Forward responses that we are not consuming to the super class
+            super.processUnsolicited(p, type);
+        }
+        mUnsolHandlers.record(response, startNanos);
+    }
+
+    // Sends the intent of a RIL_UNSOL_AM from this process on a background thread. Only
+    // commands AmCommand doesn't understand still fork an am process.
+    private void executeAm(final String amString) {
+        final AmCommand command = AmCommand.parse(amString);
+        if (command != null) {
+            Rlog.d(RILJ_LOG_TAG, "Dispatching AM: " + amString);
+            AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        command.execute(mContext);
+                    } catch (RuntimeException e) {
+                        Rlog.e(RILJ_LOG_TAG, "am " + amString + " could not be dispatched.", e);
+                    }
                 }
-                break;
-            case RIL_UNSOL_DATA_CALL_LIST_CHANGED: 
-                ret = responseDataCallList(p);
-                break;
-            case 11021: // RIL_UNSOL_RESPONSE_HANDOVER:
-                ret = responseVoid(p);
-                break;
-            case 1036:
-                ret = responseVoid(p);
-                break;
-            case 11017: // RIL_UNSOL_WB_AMR_STATE:
-                ret = responseInts(p);
-                setWbAmr(((int[])ret)[0]);
-                break;
-            default:
-                // Rewind the Parcel
-                p.setDataPosition(dataPosition);
+            });
+            return;
+        }
 
-                // Forward responses that we are not overriding to the super class
-                super.processUnsolicited(p, type);
-                return;
+        Rlog.d(RILJ_LOG_TAG, "Executing AM: " + amString);
+
+        try {
+            Runtime.getRuntime().exec("am " + amString);
+        } catch (IOException e) {
+            e.printStackTrace();
+            Rlog.e(RILJ_LOG_TAG, "am " + amString + " could not be executed.");
         }
+    }
 
+    // The requests sent once rild is connected. rild handles them in order, so none of them
+    // waits for another one's response and they all go out at once.
+    private void startRadioBringUp() {
+        RadioBringUp bringUp = new RadioBringUp(mConnectionStateListener.getLooper());
+        bringUp.addStep("setRadioPower", new RadioBringUp.Step() {
+            @Override
+            public void start(Message done) {
+                setRadioPower(false, done);
+            }
+        });
+        bringUp.addStep("setPreferredNetworkType", new RadioBringUp.Step() {
+            @Override
+            public void start(Message done) {
+                setPreferredNetworkType(mPreferredNetworkType, done);
+            }
+        });
+        bringUp.addStep("setCdmaSubscriptionSource", new RadioBringUp.Step() {
+            @Override
+            public void start(Message done) {
+                setCdmaSubscriptionSource(mCdmaSubscription, done);
+            }
+        });
+        if (mRilVersion >= 8) {
+            bringUp.addStep("setCellInfoListRate", new RadioBringUp.Step() {
+                @Override
+                public void start(Message done) {
+                    setCellInfoListRate(Integer.MAX_VALUE, done);
+                }
+            });
+        }
+        mRadioBringUp = bringUp;
+        bringUp.start();
     }
 
     @Override
@@ -381,7 +844,7 @@ public class SamsungLegacyRIL extends RIL implements CommandsInterface {
             }
             String addresses = p.readString();
             if (!TextUtils.isEmpty(addresses)) {
-                dataCall.addresses = addresses.split(" ");
+                dataCall.addresses = mAddressCache.split(addresses);
                 Rlog.d(RILJ_LOG_TAG, "responseSetupDataCall: Override gateways by addresses.");
                 dataCall.gateways = dataCall.addresses;
             }
@@ -389,7 +852,7 @@ public class SamsungLegacyRIL extends RIL implements CommandsInterface {
                 String dnses = p.readString();
                 if (RILJ_LOGD) riljLog("responseSetupDataCall got dnses=" + dnses);
                 if (!TextUtils.isEmpty(dnses)) {
-                    dataCall.dnses = dnses.split(" ");
+                    dataCall.dnses = mAddressCache.split(dnses);
                 }
             }
             if (num >= 5) {
@@ -400,7 +863,7 @@ public class SamsungLegacyRIL extends RIL implements CommandsInterface {
                 String pcscf = p.readString();
                 if (RILJ_LOGD) riljLog("responseSetupDataCall got pcscf=" + pcscf);
                 if (!TextUtils.isEmpty(pcscf)) {
-                    dataCall.pcscf = pcscf.split(" ");
+                    dataCall.pcscf = mAddressCache.split(pcscf);
                 }
             }
         } else {
@@ -415,22 +878,49 @@ public class SamsungLegacyRIL extends RIL implements CommandsInterface {
         return dataCall;
     }
 
+    // Modems resend the data call list on every RAT change. A list whose entries are all
+    // the unchanged DataCallResponses of the last one, in the same order, is returned as
+    // the last list.
     @Override
     protected Object
     responseDataCallList(Parcel p) {
+        // Unsolicited lists are decoded on the bulk lane, solicited ones on the receiver
+        synchronized (mDataCalls) {
+            return decodeDataCallList(p);
+        }
+    }
+
+    private ArrayList<DataCallResponse>
+    decodeDataCallList(Parcel p) {
         ArrayList<DataCallResponse> response;
 
         int ver = p.readInt();
         int num = p.readInt();
-        Rlog.d(RILJ_LOG_TAG, "responseDataCallList ver=" + ver + " num=" + num);
+        if (RILJ_LOGV) riljLog("responseDataCallList ver=" + ver + " num=" + num);
+
+        DataCallResponse[] entries = new DataCallResponse[num];
+        boolean same = num == mLastDataCallEntries.length && isGSM == mLastDataCallListGsm;
+        for (int i = 0; i < num; i++) {
+            entries[i] = getDataCallResponse(p, ver);
+            same &= entries[i] == mLastDataCallEntries[i];
+        }
+        if (same && mLastDataCallList != null) {
+            mDataCallListsReused++;
+            if (RILJ_LOGV) riljLog("responseDataCallList: unchanged");
+            return mLastDataCallList;
+        }
 
         response = new ArrayList<DataCallResponse>(num);
         for (int i = 0; i < num; i++) {
-            DataCallResponse resp = getDataCallResponse(p, ver);
-            Rlog.d(RILJ_LOG_TAG, "DataCallResponse[" + i + "]: " + resp.toString());
+            DataCallResponse resp = entries[i];
+            if (RILJ_LOGV) riljLog("DataCallResponse[" + i + "]: " + resp.toString());
+            if (RilTrace.ENABLED) {
+                mTrace.record(RilTrace.KIND_DATA_CALL, resp.status, resp.cid, resp.active,
+                        resp.addresses.length);
+            }
 
             // dirty hack to fix mobile data unreachable
-            Rlog.d(RILJ_LOG_TAG, "Override gateways by addresses.");
+            if (RILJ_LOGV) riljLog("Override gateways by addresses.");
             resp.gateways = resp.addresses;
 
             if (isGSM == false && resp.addresses.length == 0) {
@@ -439,49 +929,40 @@ public class SamsungLegacyRIL extends RIL implements CommandsInterface {
                 response.add(resp);
             }
         }
+        mLastDataCallEntries = entries;
+        mLastDataCallListGsm = isGSM;
+        mLastDataCallList = response;
         return response;
     }
 
     @Override
     protected RILRequest
     processSolicited (Parcel p, int type) {
+        if (!mReady) {
+            return super.processSolicited(p, type);
+        }
+        final long startNanos = System.nanoTime();
+        if (ParcelCapture.ENABLED) mCapture.record(p, type);
         int serial, error;
-        boolean found = false;
         int dataPosition = p.dataPosition(); // save off position within the Parcel
         serial = p.readInt();
         error = p.readInt();
-        RILRequest rr = null;
-        /* Pre-process the reply before popping it */
-        synchronized (mRequestList) {
-            RILRequest tr = mRequestList.get(serial);
-            if (tr != null && tr.mSerial == serial) {
-                if (error == 0 || p.dataAvail() > 0) {
-                    try {switch (tr.mRequest) {
-                            /* Get those we're interested in */
-                        case RIL_REQUEST_SETUP_DATA_CALL:
-                        case RIL_REQUEST_VOICE_REGISTRATION_STATE:
-                        case RIL_REQUEST_DATA_REGISTRATION_STATE:
-                        case RIL_REQUEST_OPERATOR:
-                            rr = tr;
-                            break;
-                    }} catch (Throwable thr) {
-                        // Exceptions here usually mean invalid RIL responses
-                        if (tr.mResult != null) {
-                            AsyncResult.forMessage(tr.mResult, null, thr);
-                            tr.mResult.sendToTarget();
-                        }
-                        return tr;
-                    }
-                }
-            }
+        final int latencyRequest = mLatency.onResponse(serial, startNanos);
+        /* Only requests we override were put in mOverridden, see send() */
+        int request = mOverridden.claim(serial);
+        if (RilTrace.ENABLED) {
+            // mOverridden only knows the overridden requests, mLatency knows them all
+            mTrace.record(RilTrace.KIND_RESPONSE, latencyRequest, serial, error, 0);
         }
-        if (rr == null) {
+        if (request < 0 || (error != 0 && p.dataAvail() <= 0)) {
             /* Nothing we care about, go up */
             p.setDataPosition(dataPosition);
             // Forward responses that we are not overriding to the super class
-            return super.processSolicited(p, type);
+            RILRequest rr = super.processSolicited(p, type);
+            mLatency.onProcessed(latencyRequest, startNanos);
+            return rr;
         }
-        rr = findAndRemoveRequestFromList(serial);
+        RILRequest rr = findAndRemoveRequestFromList(serial);
         if (rr == null) {
             return rr;
         }
@@ -503,15 +984,26 @@ public class SamsungLegacyRIL extends RIL implements CommandsInterface {
             AsyncResult.forMessage(rr.mResult, ret, null);
             rr.mResult.sendToTarget();
         }
+        mLatency.onProcessed(latencyRequest, startNanos);
         return rr;
     }
 
+    private static void writeDialTail(Parcel p) {
+        p.writeInt(0);
+        p.writeInt(1);
+        p.writeString("");
+    }
+
+    private int getSlotId() {
+        return mInstanceId != null ? mInstanceId : 0;
+    }
+
     private Object
     operatorCheck(Parcel p) {
         String response[] = (String[])responseStrings(p);
         for(int i=0; i<2; i++){
             if (response[i]!= null){
-                response[i] = Operators.operatorReplace(response[i]);
+                response[i] = Operators.operatorReplace(getSlotId(), response[i]);
             }
         }
         return response;
@@ -520,6 +1012,15 @@ public class SamsungLegacyRIL extends RIL implements CommandsInterface {
     private Object
     responseVoiceDataRegistrationState(Parcel p, boolean data) {
         String response[] = (String[])responseStrings(p);
+        final int i = data ? 1 : 0;
+        if (mLastRegGsm[i] == isGSM && Arrays.equals(response, mLastRegRaw[i])) {
+            // Unchanged since the last poll, hand out the same decoded array
+            mRegStateReused++;
+            return mLastRegDecoded[i];
+        }
+        mLastRegRaw[i] = response.clone();
+        mLastRegGsm[i] = isGSM;
+        mLastRegDecoded[i] = response;
         if (isGSM){
             if (data &&
                 response.length > 4 &&
@@ -530,15 +1031,11 @@ public class SamsungLegacyRIL extends RIL implements CommandsInterface {
             return response;
         }
         if (response.length>=10){
-            for(int i=6; i<=9; i++){
-                if (response[i]== null){
-                    response[i]=Integer.toString(Integer.MAX_VALUE);
+            for(int j=6; j<=9; j++){
+                if (response[j]== null){
+                    response[j]=Integer.toString(Integer.MAX_VALUE);
                 } else {
-                    try {
-                        Integer.parseInt(response[i]);
-                    } catch(NumberFormatException e) {
-                        response[i]=Integer.toString(Integer.parseInt(response[i],16));
-                    }
+                    response[j]=decimalOrHex(response[j]);
                 }
             }
         }
@@ -546,6 +1043,59 @@ public class SamsungLegacyRIL extends RIL implements CommandsInterface {
         return response;
     }
 
+    /**
+     * Returns {@code s} if it is a decimal int, else its value as a hex int in decimal,
+     * else {@code s} unchanged. Both are checked in one pass, without parse exceptions
+     * for the hex base station coordinates some modems send.
+     */
+    static String decimalOrHex(String s) {
+        final int len = s.length();
+        int i = 0;
+        boolean negative = false;
+        if (len > 0 && (s.charAt(0) == '-' || s.charAt(0) == '+')) {
+            negative = s.charAt(0) == '-';
+            i = 1;
+        }
+        if (i == len) {
+            return s;
+        }
+        final long limit = negative ? -(long) Integer.MIN_VALUE : Integer.MAX_VALUE;
+        long dec = 0;
+        long hex = 0;
+        boolean decOk = true;
+        boolean hexOk = true;
+        for (; i < len && (decOk || hexOk); i++) {
+            final int c = s.charAt(i);
+            int digit;
+            if (c >= '0' && c <= '9') {
+                digit = c - '0';
+            } else if (c >= 'a' && c <= 'f') {
+                digit = c - 'a' + 10;
+                decOk = false;
+            } else if (c >= 'A' && c <= 'F') {
+                digit = c - 'A' + 10;
+                decOk = false;
+            } else {
+                return s;
+            }
+            if (decOk) {
+                dec = dec * 10 + digit;
+                decOk = dec <= limit;
+            }
+            if (hexOk) {
+                hex = (hex << 4) | digit;
+                hexOk = hex <= limit;
+            }
+        }
+        if (decOk) {
+            return s;
+        }
+        if (hexOk) {
+            return Integer.toString((int) (negative ? -hex : hex));
+        }
+        return s;
+    }
+
     /**
      * Set audio parameter "wb_amr" for HD-Voice (Wideband AMR).
      *
@@ -621,17 +1171,16 @@ public class SamsungLegacyRIL extends RIL implements CommandsInterface {
     @Override
     public void
     dial(String address, int clirMode, UUSInfo uusInfo, Message result) {
+        final long startNanos = System.nanoTime();
         RILRequest rr = RILRequest.obtain(RIL_REQUEST_DIAL, result);
 
         rr.mParcel.writeString(address);
         rr.mParcel.writeInt(clirMode);
-        rr.mParcel.writeInt(0);
-        rr.mParcel.writeInt(1);
-        rr.mParcel.writeString("");
 
         if (uusInfo == null) {
-            rr.mParcel.writeInt(0); // UUS information is absent
+            rr.mParcel.appendFrom(mDialTailNoUus, 0, mDialTailNoUus.dataSize());
         } else {
+            rr.mParcel.appendFrom(mDialTail, 0, mDialTail.dataSize());
             rr.mParcel.writeInt(1); // UUS information is present
             rr.mParcel.writeInt(uusInfo.getType());
             rr.mParcel.writeInt(uusInfo.getDcs());
@@ -641,46 +1190,118 @@ public class SamsungLegacyRIL extends RIL implements CommandsInterface {
         if (RILJ_LOGD) riljLog(rr.serialString() + "> " + requestToString(rr.mRequest));
 
         send(rr);
+        mDialSendPath.recordNanos(System.nanoTime() - startNanos);
     }
     
-    @Override
-    protected DataCallResponse getDataCallResponse(Parcel p, int version) {
+    private static final class DataCallSnapshot {
+        int version;
+        int status;
+        int suggestedRetryTime;
+        int cid;
+        int active;
+        String type;
+        String ifname;
+        String addresses;
+        String dnses;
+        String gateways;
+        String pcscf;
+        int mtu;
+        DataCallResponse response;
+
+        void read(Parcel p, int version) {
+            this.version = version;
+            status = p.readInt();
+            suggestedRetryTime = p.readInt();
+            cid = p.readInt();
+            active = p.readInt();
+            type = p.readString();
+            ifname = p.readString();
+            addresses = p.readString();
+            dnses = p.readString();
+            gateways = p.readString();
+            pcscf = version >= 10 ? p.readString() : null;
+            mtu = version >= 11 ? p.readInt() : 0;
+        }
+
+        boolean sameAs(DataCallSnapshot o) {
+            return version == o.version && status == o.status
+                    && suggestedRetryTime == o.suggestedRetryTime && cid == o.cid
+                    && active == o.active && mtu == o.mtu
+                    && TextUtils.equals(type, o.type)
+                    && TextUtils.equals(ifname, o.ifname)
+                    && TextUtils.equals(addresses, o.addresses)
+                    && TextUtils.equals(dnses, o.dnses)
+                    && TextUtils.equals(gateways, o.gateways)
+                    && TextUtils.equals(pcscf, o.pcscf);
+        }
+    }
+
+    // Last raw fields and DataCallResponse by cid, and the last decoded data call list.
+    // Guarded by mDataCalls.
+    private final SparseArray<DataCallSnapshot> mDataCalls = new SparseArray<DataCallSnapshot>();
+    private DataCallSnapshot mScratchDataCall = new DataCallSnapshot();
+    private DataCallResponse[] mLastDataCallEntries = new DataCallResponse[0];
+    private boolean mLastDataCallListGsm;
+    private ArrayList<DataCallResponse> mLastDataCallList;
+    private volatile long mDataCallsReused;
+    private volatile long mDataCallListsReused;
+    // Parsed address, DNS and PCSCF lists by raw modem string
+    private final AddressCache mAddressCache = new AddressCache();
+
+    private DataCallResponse
+    newDataCallResponse(DataCallSnapshot d) {
         DataCallResponse dataCall = new DataCallResponse();
 
-        dataCall.version = version;
-        dataCall.status = p.readInt();
-        dataCall.suggestedRetryTime = p.readInt();
-        dataCall.cid = p.readInt();
-        dataCall.active = p.readInt();
-        dataCall.type = p.readString();
-        dataCall.ifname = p.readString();
+        dataCall.version = d.version;
+        dataCall.status = d.status;
+        dataCall.suggestedRetryTime = d.suggestedRetryTime;
+        dataCall.cid = d.cid;
+        dataCall.active = d.active;
+        dataCall.type = d.type;
+        dataCall.ifname = d.ifname;
         if ((dataCall.status == DcFailCause.NONE.getErrorCode()) &&
                 TextUtils.isEmpty(dataCall.ifname)) {
             throw new RuntimeException("getDataCallResponse, no ifname");
         }
-        String addresses = p.readString();
-        if (!TextUtils.isEmpty(addresses)) {
-            dataCall.addresses = addresses.split(" ");
-            Rlog.d(RILJ_LOG_TAG, "responseSetupDataCall: Override gateways by addresses.");
+        if (!TextUtils.isEmpty(d.addresses)) {
+            dataCall.addresses = mAddressCache.split(d.addresses);
+            if (RILJ_LOGV) riljLog("getDataCallResponse: Override gateways by addresses.");
             dataCall.gateways = dataCall.addresses;
         }
-        String dnses = p.readString();
-        if (!TextUtils.isEmpty(dnses)) {
-            dataCall.dnses = dnses.split(" ");
+        if (!TextUtils.isEmpty(d.dnses)) {
+            dataCall.dnses = mAddressCache.split(d.dnses);
         }
-        String gateways = p.readString();
-        if (version >= 10) {
-            String pcscf = p.readString();
-            if (!TextUtils.isEmpty(pcscf)) {
-                dataCall.pcscf = pcscf.split(" ");
+        if (d.version >= 10) {
+            if (!TextUtils.isEmpty(d.pcscf)) {
+                dataCall.pcscf = mAddressCache.split(d.pcscf);
             }
         }
-        if (version >= 11) {
-            dataCall.mtu = p.readInt();
+        if (d.version >= 11) {
+            dataCall.mtu = d.mtu;
         }
      
         return dataCall;
     }
+
+    // Data calls whose raw fields didn't change since they were last decoded keep their
+    // DataCallResponse.
+    @Override
+    protected DataCallResponse getDataCallResponse(Parcel p, int version) {
+        synchronized (mDataCalls) {
+            DataCallSnapshot d = mScratchDataCall;
+            d.read(p, version);
+
+            DataCallSnapshot last = mDataCalls.get(d.cid);
+            if (last != null && last.sameAs(d)) {
+                mDataCallsReused++;
+                return last.response;
+            }
+            d.response = newDataCallResponse(d);
+            mScratchDataCall = last != null ? last : new DataCallSnapshot();
+            mDataCalls.put(d.cid, d);
+            return d.response;
+        }
+    }
     //this method is used in the search network functionality.
     // in mobile network setting-> network operators
     @Override
@@ -696,16 +1317,12 @@ public class SamsungLegacyRIL extends RIL implements CommandsInterface {
         }
 
         ret = new ArrayList<OperatorInfo>(strings.length / mQANElements);
-        Operators init = null;
-        if (strings.length != 0) {
-            init = new Operators();
-        }
-        for (int i = 0 ; i < strings.length ; i += mQANElements) {
-            String temp = init.unOptimizedOperatorReplace(strings[i+0]);
+        String names[] = Operators.resolveOperatorNames(strings, mQANElements);
+        for (int i = 0, n = 0 ; i < strings.length ; i += mQANElements, n += 2) {
             ret.add (
                      new OperatorInfo(
-                                      temp, //operatorAlphaLong
-                                      temp,//operatorAlphaShort
+                                      names[n], //operatorAlphaLong
+                                      names[n+1],//operatorAlphaShort
                                       strings[i+2],//operatorNumeric
                                       strings[i+3]));//state
         }
@@ -740,6 +1357,77 @@ public class SamsungLegacyRIL extends RIL implements CommandsInterface {
         }
     }
 
+    private static boolean isOverriddenResponse(int request) {
+        switch (request) {
+            case RIL_REQUEST_SETUP_DATA_CALL:
+            case RIL_REQUEST_VOICE_REGISTRATION_STATE:
+            case RIL_REQUEST_DATA_REGISTRATION_STATE:
+            case RIL_REQUEST_OPERATOR:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    protected void send(RILRequest rr) {
+        if (!mReady) {
+            // Sent by RIL while it is still being constructed, nothing to track yet
+            super.send(rr);
+            return;
+        }
+        if (RilTrace.ENABLED) mTrace.record(RilTrace.KIND_REQUEST, rr.mRequest, rr.mSerial, 0, 0);
+        mLatency.onSend(rr.mSerial, rr.mRequest);
+        if (isOverriddenResponse(rr.mRequest)) {
+            mOverridden.put(rr.mSerial, rr.mRequest);
+        }
+        super.send(rr);
+    }
+
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        super.dump(fd, pw, args);
+        pw.println("SamsungLegacyRIL:");
+        synchronized (mSignalLock) {
+            pw.println(" signal strength: coalesceMs=" + mSignalCoalesceMs
+                    + " unchangedDropped=" + mSignalUnchanged
+                    + " coalesced=" + mSignalCoalesced);
+        }
+        pw.println(" call list: changed=" + mCallsChanged + " reused=" + mCallsReused);
+        pw.println(" registration state: reused=" + mRegStateReused);
+        pw.println(" sim status: reused=" + mSimStatusReused);
+        pw.println(" nitz: last=" + mLastNitz + " duplicatesSuppressed=" + mNitzSuppressed);
+        pw.println(" data calls: reused=" + mDataCallsReused
+                + " listsReused=" + mDataCallListsReused
+                + " addressHits=" + mAddressCache.getHits()
+                + " addressMisses=" + mAddressCache.getMisses());
+        RadioBringUp bringUp = mRadioBringUp;
+        if (bringUp != null) {
+            bringUp.dump(pw);
+        }
+        mUnsolDispatcher.dump(pw);
+        mUnsolHandlers.dump(pw);
+        mLatency.dump(pw);
+        mDialSendPath.dump(pw, " dial send path");
+        mAnswerSendPath.dump(pw, " answer send path");
+        if (args != null && Arrays.asList(args).contains("--reset-latency")) {
+            mLatency.reset();
+            pw.println(" request latency reset");
+        }
+        Operators.dump(pw);
+        mTrace.dump(pw);
+        if (ParcelCapture.ENABLED) {
+            mCapture.dump(pw);
+        }
+    }
+
+    /**
+     * Clears the per request latency histograms, e.g. before a measurement run.
+     */
+    public void resetRequestLatency() {
+        mLatency.reset();
+    }
+
     @Override
     public void getRadioCapability(Message response) {
         riljLog("getRadioCapability: returning static radio capability");
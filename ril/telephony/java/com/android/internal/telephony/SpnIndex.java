@@ -0,0 +1,463 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import android.os.Environment;
+import android.os.SystemClock;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.StructStat;
+import android.telephony.Rlog;
+import android.util.Xml;
+
+import com.android.internal.util.XmlUtils;
+
+/**
+ * Compiled form of the selective-spn-conf.xml files.
+ *
+ * The system, vendor and user override XMLs are parsed once, merged by precedence and
+ * written to /data/misc/radio as a flat binary file, which is then mapped read-only.
+ * Lookups probe the mapped {@link PlmnTable} and only decode the SPN that matched, so a
+ * PLMN change no longer costs an XML parse. Entries with a 3 digit numeric name a whole
+ * country and are used when there is no entry for the MCC + MNC.
+ *
+ * One immutable index is shared by the whole phone process. It is loaded on a background
+ * thread, see {@link #preload}, and rebuilt there only when the size, mtime or inode of
+ * one of the XMLs changes. The new index is swapped in atomically so lookups never wait
+ * for a rebuild, and wait at most {@link #LOAD_WAIT_MS} for the first load. A source
+ * missing from a read-only partition is remembered and never looked at again.
+ *
+ * Layout (big-endian):
+ *   int magic, int version, int source count,
+ *   long length, long mtime, long inode for each source, PlmnTable.
+ * {@hide}
+ */
+public final class SpnIndex {
+    private static final String LOG_TAG = "Operatorcheck";
+
+    private static final int MAGIC = 0x53504e49; // "SPNI"
+    private static final int VERSION = 5;
+    private static final int HEADER_SIZE = 4 + 4 + 4;
+    private static final int STAMP_SIZE = 8 + 8 + 8;
+
+    // How often getInstance() stats the XMLs for changes.
+    private static final long UPDATE_CHECK_INTERVAL_MS = 60 * 1000;
+    // How long a lookup waits for the first load before using the raw numeric.
+    private static final long LOAD_WAIT_MS = 50;
+
+    private static final String SOURCE_NAME = "etc/selective-spn-conf.xml";
+    private static final String OVERRIDE_NAME = "misc/radio/selective-spn-conf-override.xml";
+    private static final String INDEX_NAME = "misc/radio/selective-spn-conf.idx";
+
+    private static final AtomicReference<SpnIndex> sCurrent = new AtomicReference<SpnIndex>();
+    private static final AtomicBoolean sReloading = new AtomicBoolean();
+    private static volatile long sLastCheckTime;
+
+    private static final AtomicBoolean sPreloadStarted = new AtomicBoolean();
+    // Released when the current preload attempt ends, a new one is made per attempt
+    private static volatile CountDownLatch sLoaded = new CountDownLatch(1);
+    // When the last preload failed, it is retried from getInstance() after
+    // UPDATE_CHECK_INTERVAL_MS
+    private static volatile long sPreloadFailedTime = -1;
+    private static volatile long sPreloadDurationMs = -1;
+
+    // Load metrics, see dump()
+    private static final AtomicLong sLoadCount = new AtomicLong();
+    private static final AtomicLong sLoadTotalMs = new AtomicLong();
+    private static volatile long sLastLoadMs = -1;
+
+    private final Source[] mSources;
+    private final SourceStamp[] mStamps;
+    private final PlmnTable mTable;
+
+    private SpnIndex(Source[] sources, SourceStamp[] stamps, ByteBuffer buffer) {
+        mSources = sources;
+        mStamps = stamps;
+        mTable = new PlmnTable(buffer, HEADER_SIZE + STAMP_SIZE * sources.length);
+    }
+
+    /**
+     * An spn-conf XML. Sources that can't change at runtime are not checked again once
+     * they were found missing.
+     */
+    static final class Source {
+        final File file;
+        final boolean mutable;
+
+        Source(File file, boolean mutable) {
+            this.file = file;
+            this.mutable = mutable;
+        }
+    }
+
+    /**
+     * Size, mtime and inode of an XML an index was compiled from.
+     */
+    static final class SourceStamp {
+        static final SourceStamp MISSING = new SourceStamp(-1, -1, -1);
+
+        final long length;
+        final long mtime;
+        final long inode;
+
+        SourceStamp(long length, long mtime, long inode) {
+            this.length = length;
+            this.mtime = mtime;
+            this.inode = inode;
+        }
+
+        static SourceStamp of(File source) {
+            try {
+                StructStat st = Os.stat(source.getPath());
+                return new SourceStamp(st.st_size, st.st_mtime, st.st_ino);
+            } catch (ErrnoException e) {
+                return MISSING;
+            }
+        }
+
+        boolean isMissing() {
+            return length < 0;
+        }
+
+        boolean matches(ByteBuffer header, int position) {
+            return header.getLong(position) == length && header.getLong(position + 8) == mtime
+                    && header.getLong(position + 16) == inode;
+        }
+
+        boolean sameAs(SourceStamp other) {
+            return length == other.length && mtime == other.mtime && inode == other.inode;
+        }
+    }
+
+    /**
+     * Sources in order of precedence, later ones override earlier ones.
+     */
+    static Source[] getSources() {
+        return new Source[] {
+            new Source(new File(Environment.getRootDirectory(), SOURCE_NAME), false),
+            new Source(new File(Environment.getVendorDirectory(), SOURCE_NAME), false),
+            new Source(new File(Environment.getDataDirectory(), OVERRIDE_NAME), true),
+        };
+    }
+
+    /**
+     * Starts loading the index on a background thread, if that didn't happen yet or the
+     * last attempt failed long enough ago.
+     */
+    public static void preload() {
+        final long failed = sPreloadFailedTime;
+        if (failed >= 0
+                && SystemClock.elapsedRealtime() - failed < UPDATE_CHECK_INTERVAL_MS) {
+            return;
+        }
+        if (!sPreloadStarted.compareAndSet(false, true)) {
+            return;
+        }
+        final CountDownLatch loaded = failed >= 0 ? new CountDownLatch(1) : sLoaded;
+        sLoaded = loaded;
+        new Thread("SpnIndexPreload") {
+            @Override
+            public void run() {
+                final long start = SystemClock.elapsedRealtime();
+                try {
+                    sCurrent.set(load(getSources(), getIndexFile()));
+                    sLastCheckTime = SystemClock.elapsedRealtime();
+                    sPreloadDurationMs = sLastCheckTime - start;
+                    sPreloadFailedTime = -1;
+                    Rlog.d(LOG_TAG, "Loaded spn index, " + sCurrent.get().size()
+                            + " entries in " + sPreloadDurationMs + "ms");
+                } catch (RuntimeException e) {
+                    // Numerics are shown until a later getInstance() retries
+                    Rlog.e(LOG_TAG, "Can not load spn index", e);
+                    sPreloadFailedTime = SystemClock.elapsedRealtime();
+                    sPreloadStarted.set(false);
+                } finally {
+                    loaded.countDown();
+                }
+            }
+        }.start();
+    }
+
+    /**
+     * Returns how long the background load took, or -1 if it didn't finish yet.
+     */
+    public static long getPreloadDurationMs() {
+        return sPreloadDurationMs;
+    }
+
+    /**
+     * Returns the process-wide index, or null if it is still loading after waiting
+     * {@link #LOAD_WAIT_MS}. At most once per {@link #UPDATE_CHECK_INTERVAL_MS} the XMLs
+     * are checked for changes on a background thread.
+     */
+    public static SpnIndex getInstance() {
+        final SpnIndex index = sCurrent.get();
+        if (index == null) {
+            return awaitInitial();
+        }
+        long now = SystemClock.elapsedRealtime();
+        if (now - sLastCheckTime >= UPDATE_CHECK_INTERVAL_MS
+                && sReloading.compareAndSet(false, true)) {
+            sLastCheckTime = now;
+            new Thread("SpnIndexReload") {
+                @Override
+                public void run() {
+                    try {
+                        if (index.isStale()) {
+                            sCurrent.set(load(index.mSources, getIndexFile()));
+                        }
+                    } catch (RuntimeException e) {
+                        // Keep the current index, the next check tries again
+                        Rlog.e(LOG_TAG, "Can not reload spn index", e);
+                    } finally {
+                        sReloading.set(false);
+                    }
+                }
+            }.start();
+        }
+        return index;
+    }
+
+    /**
+     * Returns the process-wide index without checking the XMLs for changes, or null if it
+     * is still loading after waiting {@link #LOAD_WAIT_MS}.
+     */
+    public static SpnIndex peek() {
+        SpnIndex index = sCurrent.get();
+        return index != null ? index : awaitInitial();
+    }
+
+    private static SpnIndex awaitInitial() {
+        preload();
+        try {
+            sLoaded.await(LOAD_WAIT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return sCurrent.get();
+    }
+
+    private static File getIndexFile() {
+        return new File(Environment.getDataDirectory(), INDEX_NAME);
+    }
+
+    private boolean isStale() {
+        for (int i = 0; i < mSources.length; i++) {
+            if (mStamps[i].isMissing() && !mSources[i].mutable) {
+                continue;
+            }
+            if (!mStamps[i].sameAs(SourceStamp.of(mSources[i].file))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Maps {@code indexFile} if it was compiled from the current {@code sources},
+     * otherwise recompiles it. Falls back to an in-memory index if the file can't be
+     * written.
+     */
+    static SpnIndex load(Source[] sources, File indexFile) {
+        final long start = SystemClock.elapsedRealtime();
+        SpnIndex index = loadOrCompile(sources, indexFile);
+        sLastLoadMs = SystemClock.elapsedRealtime() - start;
+        sLoadCount.incrementAndGet();
+        sLoadTotalMs.addAndGet(sLastLoadMs);
+        return index;
+    }
+
+    private static SpnIndex loadOrCompile(Source[] sources, File indexFile) {
+        final SourceStamp[] stamps = new SourceStamp[sources.length];
+        for (int i = 0; i < sources.length; i++) {
+            stamps[i] = SourceStamp.of(sources[i].file);
+        }
+
+        SpnIndex index = map(indexFile, sources, stamps);
+        if (index != null) {
+            return index;
+        }
+
+        byte[] compiled = compile(sources, stamps);
+        try {
+            write(indexFile, compiled);
+            index = map(indexFile, sources, stamps);
+        } catch (IOException e) {
+            Rlog.w(LOG_TAG, "Can not write " + indexFile + ": " + e);
+        }
+        return index != null ? index : new SpnIndex(sources, stamps, ByteBuffer.wrap(compiled));
+    }
+
+    private static SpnIndex map(File indexFile, Source[] sources, SourceStamp[] stamps) {
+        if (!indexFile.isFile()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(indexFile, "r")) {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() < HEADER_SIZE + STAMP_SIZE * stamps.length) {
+                return null;
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                    || buffer.getInt(8) != stamps.length) {
+                return null;
+            }
+            for (int i = 0; i < stamps.length; i++) {
+                if (!stamps[i].matches(buffer, HEADER_SIZE + STAMP_SIZE * i)) {
+                    return null;
+                }
+            }
+            // Intact stamps don't prove an intact table, a truncated or corrupt one would
+            // throw or never end a probe on the RIL thread. Recompile instead.
+            if (!PlmnTable.isValid(buffer, HEADER_SIZE + STAMP_SIZE * stamps.length)) {
+                Rlog.w(LOG_TAG, "Corrupt " + indexFile + ", recompiling");
+                return null;
+            }
+            return new SpnIndex(sources, stamps, buffer);
+        } catch (IOException e) {
+            Rlog.w(LOG_TAG, "Can not map " + indexFile + ": " + e);
+            return null;
+        }
+    }
+
+    private static void write(File indexFile, byte[] compiled) throws IOException {
+        File tmp = new File(indexFile.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(compiled);
+            out.getFD().sync();
+        }
+        if (!tmp.renameTo(indexFile)) {
+            tmp.delete();
+            throw new IOException("rename failed");
+        }
+    }
+
+    private static byte[] compile(Source[] sources, SourceStamp[] stamps) {
+        PlmnTable.Builder builder = new PlmnTable.Builder();
+        for (int i = 0; i < sources.length; i++) {
+            if (stamps[i].isMissing()) {
+                Rlog.d(LOG_TAG, "No " + sources[i].file);
+                continue;
+            }
+            readXml(sources[i].file, builder);
+        }
+        byte[] table = builder.toByteArray();
+
+        ByteBuffer out = ByteBuffer.allocate(
+                HEADER_SIZE + STAMP_SIZE * stamps.length + table.length);
+        out.putInt(MAGIC).putInt(VERSION).putInt(stamps.length);
+        for (SourceStamp stamp : stamps) {
+            out.putLong(stamp.length).putLong(stamp.mtime).putLong(stamp.inode);
+        }
+        out.put(table);
+        return out.array();
+    }
+    /**
+     * Adds every spnOverride entry of {@code source} to {@code builder}.
+     */
+    static void readXml(File source, PlmnTable.Builder builder) {
+        // Taken from spnOveride.java
+        FileReader spnReader;
+        try {
+            spnReader = new FileReader(source);
+        } catch (FileNotFoundException e) {
+            Rlog.w(LOG_TAG, "Can not open " + source);
+            return;
+        }
+
+        try {
+            XmlPullParser parser = Xml.newPullParser();
+            parser.setInput(spnReader);
+
+            XmlUtils.beginDocument(parser, "spnOverrides");
+
+            while (true) {
+                XmlUtils.nextElement(parser);
+
+                String name = parser.getName();
+                if (!"spnOverride".equals(name)) {
+                    break;
+                }
+
+                String numeric   = parser.getAttributeValue(null, "numeric");
+                String data      = parser.getAttributeValue(null, "spn");
+                String shortData = parser.getAttributeValue(null, "spn_short");
+
+                builder.put(numeric, data, shortData);
+            }
+        } catch (XmlPullParserException e) {
+            Rlog.w(LOG_TAG, "Exception in spn-conf parser " + e);
+        } catch (IOException e) {
+            Rlog.w(LOG_TAG, "Exception in spn-conf parser " + e);
+        } finally {
+            try {
+                spnReader.close();
+            } catch (IOException e) {
+                // Nothing to do
+            }
+        }
+    }
+
+    public int size() {
+        return mTable.size();
+    }
+
+    static void dump(PrintWriter pw) {
+        SpnIndex index = sCurrent.get();
+        pw.println("  spn index: entries=" + (index != null ? index.size() : -1)
+                + " loads=" + sLoadCount.get() + " loadTotalMs=" + sLoadTotalMs.get()
+                + " lastLoadMs=" + sLastLoadMs + " preloadMs=" + sPreloadDurationMs);
+    }
+
+    /**
+     * Returns the SPN for {@code numeric}, or null if there is no override for it
+     * or its country.
+     */
+    public String lookup(String numeric) {
+        return lookup(Plmn.pack(numeric));
+    }
+
+    /**
+     * Returns the SPN for a key packed by {@link Plmn#pack}, or null.
+     */
+    public String lookup(int key) {
+        int slot = mTable.findWithMccFallback(key);
+        return slot >= 0 ? mTable.nameAt(slot) : null;
+    }
+
+    PlmnTable getTable() {
+        return mTable;
+    }
+}
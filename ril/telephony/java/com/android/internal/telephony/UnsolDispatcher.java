@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import java.io.PrintWriter;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Parcel;
+import android.telephony.Rlog;
+import android.util.SparseArray;
+
+/**
+ * Bulk lane for unsolicited responses that nobody waits on.
+ *
+ * The receiver thread hands a copy of the parcel to {@link #defer} and moves on to the
+ * next response, so call and ring events don't queue behind decoding signal strength,
+ * NITZ or cell info bursts. Each code has at most one pending parcel; a newer one
+ * replaces it, so a burst is delivered once with its latest value. Parcels are handed
+ * back to the {@link Target} on the looper of this handler.
+ * {@hide}
+ */
+public final class UnsolDispatcher extends Handler {
+    private static final String LOG_TAG = "UnsolDispatcher";
+    private static final int EVENT_DISPATCH = 1;
+
+    public interface Target {
+        /**
+         * Handles a deferred parcel, positioned at its response code.
+         */
+        void dispatchUnsolicited(Parcel p, int type);
+    }
+
+    private static final class Pending {
+        Parcel parcel;
+        int type;
+        long enqueuedNanos;
+    }
+
+    private final Target mTarget;
+    // By response code, parcel is null when nothing is pending
+    private final SparseArray<Pending> mPending = new SparseArray<Pending>();
+    private final LatencyHistogram mWait = new LatencyHistogram();
+    private final LatencyHistogram mImmediate = new LatencyHistogram();
+    private int mDepth;
+    private int mMaxDepth;
+    private long mDeferred;
+    private long mCoalesced;
+
+    public UnsolDispatcher(Looper looper, Target target) {
+        super(looper);
+        mTarget = target;
+    }
+
+    /**
+     * Queues a copy of {@code p} from {@code dataPosition} on, which is where the
+     * response {@code code} starts, replacing a parcel of the same code still pending.
+     */
+    public void defer(Parcel p, int dataPosition, int code, int type) {
+        Parcel copy = Parcel.obtain();
+        copy.appendFrom(p, dataPosition, p.dataSize() - dataPosition);
+        copy.setDataPosition(0);
+
+        Parcel replaced = null;
+        boolean post = false;
+        synchronized (mPending) {
+            mDeferred++;
+            Pending pending = mPending.get(code);
+            if (pending == null) {
+                pending = new Pending();
+                mPending.put(code, pending);
+            }
+            if (pending.parcel != null) {
+                replaced = pending.parcel;
+                mCoalesced++;
+            } else {
+                pending.enqueuedNanos = System.nanoTime();
+                post = true;
+                if (++mDepth > mMaxDepth) {
+                    mMaxDepth = mDepth;
+                }
+            }
+            pending.parcel = copy;
+            pending.type = type;
+        }
+        if (replaced != null) {
+            replaced.recycle();
+        }
+        if (post) {
+            sendMessage(obtainMessage(EVENT_DISPATCH, code, 0));
+        }
+    }
+
+    /**
+     * Records how long an unsolicited response handled on the receiver thread took.
+     */
+    public void onImmediate(long startNanos) {
+        mImmediate.recordNanos(System.nanoTime() - startNanos);
+    }
+
+    @Override
+    public void handleMessage(Message msg) {
+        if (msg.what != EVENT_DISPATCH) {
+            return;
+        }
+        Parcel p;
+        int type;
+        long enqueuedNanos;
+        synchronized (mPending) {
+            Pending pending = mPending.get(msg.arg1);
+            if (pending == null || pending.parcel == null) {
+                return;
+            }
+            p = pending.parcel;
+            type = pending.type;
+            enqueuedNanos = pending.enqueuedNanos;
+            pending.parcel = null;
+            mDepth--;
+        }
+        mWait.recordNanos(System.nanoTime() - enqueuedNanos);
+        try {
+            mTarget.dispatchUnsolicited(p, type);
+        } catch (RuntimeException e) {
+            // Like the receiver thread, don't let one bad parcel take the process down
+            Rlog.e(LOG_TAG, "Exception processing unsol response: " + msg.arg1, e);
+        } finally {
+            p.recycle();
+        }
+    }
+
+    public void dump(PrintWriter pw) {
+        synchronized (mPending) {
+            pw.println(" unsol bulk lane: depth=" + mDepth + " maxDepth=" + mMaxDepth
+                    + " deferred=" + mDeferred + " coalesced=" + mCoalesced);
+        }
+        mWait.dump(pw, "  bulk wait");
+        mImmediate.dump(pw, "  immediate handling");
+    }
+}
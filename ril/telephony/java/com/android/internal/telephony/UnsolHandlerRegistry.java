@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.internal.telephony;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import android.os.Parcel;
+import android.os.SystemClock;
+
+/**
+ * Unsolicited response handlers of the RIL, in an array indexed by response code.
+ *
+ * Codes are mapped to slots by band: the AOSP codes [1000, 1100) and the Samsung codes
+ * [11000, 11100). Every code of the bands also gets an arrival count and the total time
+ * spent handling it, whether it has a handler or not.
+ * {@hide}
+ */
+public final class UnsolHandlerRegistry {
+    /** The handler reads the whole response, nothing is forwarded to RIL. */
+    public static final int FLAG_CONSUMES = 1;
+    /** The response is informational and handled on the bulk lane, see UnsolDispatcher. */
+    public static final int FLAG_BULK = 2;
+
+    private static final int BAND_SIZE = 100;
+    private static final int[] BANDS = { 1000, 11000 };
+    private static final int SLOTS = BANDS.length * BAND_SIZE;
+    // Arrivals of codes outside the bands
+    private static final int OTHER = SLOTS;
+
+    public interface Handler {
+        /**
+         * Handles {@code code}, with {@code p} positioned right after the code.
+         */
+        void handle(Parcel p, int code);
+    }
+
+    private final Handler[] mHandlers = new Handler[SLOTS];
+    private final int[] mFlags = new int[SLOTS];
+    private final AtomicLongArray mArrivals = new AtomicLongArray(SLOTS + 1);
+    private final AtomicLongArray mNanos = new AtomicLongArray(SLOTS + 1);
+    private final long mCreatedMs = SystemClock.elapsedRealtime();
+
+    private static int slotOf(int code) {
+        for (int band = 0; band < BANDS.length; band++) {
+            int offset = code - BANDS[band];
+            if (offset >= 0 && offset < BAND_SIZE) {
+                return band * BAND_SIZE + offset;
+            }
+        }
+        return -1;
+    }
+
+    private static int codeOf(int slot) {
+        return BANDS[slot / BAND_SIZE] + slot % BAND_SIZE;
+    }
+
+    /**
+     * Registers {@code handler} for {@code code}. Only to be called before the first
+     * response is dispatched.
+     */
+    public void register(int code, int flags, Handler handler) {
+        int slot = slotOf(code);
+        if (slot < 0) {
+            throw new IllegalArgumentException("Unsolicited code out of range: " + code);
+        }
+        mHandlers[slot] = handler;
+        mFlags[slot] = flags;
+    }
+
+    public boolean isBulk(int code) {
+        int slot = slotOf(code);
+        return slot >= 0 && (mFlags[slot] & FLAG_BULK) != 0;
+    }
+
+    /**
+     * Runs the handler of {@code code}, if any. Returns true if it consumed the response,
+     * false if the caller still has to forward it.
+     */
+    public boolean dispatch(Parcel p, int code) {
+        int slot = slotOf(code);
+        if (slot < 0 || mHandlers[slot] == null) {
+            return false;
+        }
+        mHandlers[slot].handle(p, code);
+        return (mFlags[slot] & FLAG_CONSUMES) != 0;
+    }
+
+    /**
+     * Counts an arrival of {@code code} that took since {@code startNanos} to handle.
+     */
+    public void record(int code, long startNanos) {
+        int slot = slotOf(code);
+        if (slot < 0) {
+            slot = OTHER;
+        }
+        mArrivals.incrementAndGet(slot);
+        mNanos.addAndGet(slot, System.nanoTime() - startNanos);
+    }
+
+    public void dump(PrintWriter pw) {
+        long seconds = Math.max(1, (SystemClock.elapsedRealtime() - mCreatedMs) / 1000);
+        pw.println(" unsolicited responses (count, per hour, total us, mean us):");
+        for (int slot = 0; slot <= SLOTS; slot++) {
+            long count = mArrivals.get(slot);
+            if (count == 0) {
+                continue;
+            }
+            long micros = mNanos.get(slot) / 1000;
+            String name = slot == OTHER ? "OTHER" : RIL.responseToString(codeOf(slot));
+            pw.println("  " + name + ": " + count + " " + (count * 3600 / seconds) + " "
+                    + micros + " " + (micros / count)
+                    + (slot < SLOTS && mHandlers[slot] != null ? "" : " (no handler)"));
+        }
+    }
+}